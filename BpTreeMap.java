@@ -22,10 +22,15 @@ public class BpTreeMap<K extends Comparable<K>, V>
         extends AbstractMap<K, V>
         implements Serializable, Cloneable, SortedMap<K, V> {
     /**
-     * The maximum fanout for a B+Tree node.
+     * The default maximum fanout for a B+Tree node.
      */
     private static final int ORDER = 5;
 
+    /**
+     * The maximum fanout for a node of this B+Tree.
+     */
+    private final int order;
+
     /**
      * The class for type K.
      */
@@ -42,6 +47,7 @@ public class BpTreeMap<K extends Comparable<K>, V>
     private class Node {
         boolean isLeaf;
         int nKeys;
+        int size;                  // number of keys in the subtree (internal nodes only)
         K[] key;
         Object[] ref;
 
@@ -49,12 +55,12 @@ public class BpTreeMap<K extends Comparable<K>, V>
         Node(boolean _isLeaf) {
             isLeaf = _isLeaf;
             nKeys = 0;
-            key = (K[]) Array.newInstance(classK, ORDER - 1);
+            key = (K[]) Array.newInstance(classK, order - 1);
             if (isLeaf) {
-                //ref = (V []) Array.newInstance (classV, ORDER);
-                ref = new Object[ORDER];
+                //ref = (V []) Array.newInstance (classV, order);
+                ref = new Object[order];
             } else {
-                ref = (Node[]) Array.newInstance(Node.class, ORDER);
+                ref = (Node[]) Array.newInstance(Node.class, order);
             } // if
         } // constructor
     } // Node inner class
@@ -76,11 +82,39 @@ public class BpTreeMap<K extends Comparable<K>, V>
      * @param _classV the class for values (V)
      */
     public BpTreeMap(Class<K> _classK, Class<V> _classV) {
+        this(_classK, _classV, ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map whose nodes have the given maximum fanout.  Large
+     * fanouts (e.g., 64 to 512) give shallow trees; nodes are searched by binary search.
+     *
+     * @param _classK the class for keys (K)
+     * @param _classV the class for values (V)
+     * @param _order  the maximum fanout of a node (at least 3)
+     */
+    public BpTreeMap(Class<K> _classK, Class<V> _classV, int _order) {
+        if (_order < 3) throw new IllegalArgumentException("BpTreeMap: order must be at least 3");
         classK = _classK;
         classV = _classV;
+        order = _order;
         setRoot(new Node(true));
     } // constructor
 
+    /********************************************************************************
+     * Construct a B+Tree map bulk-loaded from entries sorted by key (see bulkLoad).
+     *
+     * @param _classK    the class for keys (K)
+     * @param _classV    the class for values (V)
+     * @param sorted     the entries in ascending key order
+     * @param fillFactor the fraction of each node to fill, in (0, 1]
+     */
+    public BpTreeMap(Class<K> _classK, Class<V> _classV,
+                     Iterator<? extends Map.Entry<K, V>> sorted, double fillFactor) {
+        this(_classK, _classV);
+        bulkLoad(sorted, fillFactor);
+    } // constructor
+
     /********************************************************************************
      * Return null to use the natural order based on the key type.  This requires the
      * key type to implement Comparable.
@@ -90,29 +124,53 @@ public class BpTreeMap<K extends Comparable<K>, V>
     } // comparator
 
     /********************************************************************************
-     * Return a set containing all the entries as pairs of keys and values.
+     * Return a live view of the entries in key order.  Iteration walks the leaf chain
+     * without copying, and removal through the iterator deletes from the map.
      *
      * @return the set view of the map
      */
     public Set<Map.Entry<K, V>> entrySet() {
-        Set<Map.Entry<K, V>> enSet = new HashSet<>();
-
-        //get first key
-        Node node = firstKeyNode();
+        return new View<>(null, null, ENTRIES);
+    } // entrySet
 
-        //reach to left bottom of the tree.
+    /********************************************************************************
+     * Return a live view of the keys in ascending order.
+     *
+     * @return the set view of the keys
+     */
+    public Set<K> keySet() {
+        return new View<>(null, null, KEYS);
+    } // keySet
 
-        do {
-            // add key value pair to set
-            for (int i = 0; i < node.nKeys; i++) {
-                enSet.add(new AbstractMap.SimpleEntry<>(node.key[i], (V) node.ref[i]));
-            }
-            node = (Node) node.ref[node.nKeys];
-        } while (node != null);
+    /********************************************************************************
+     * Return a live view of the values in the order of their keys.
+     *
+     * @return the collection view of the values
+     */
+    public Collection<V> values() {
+        return new View<>(null, null, VALUES);
+    } // values
 
+    /********************************************************************************
+     * Return an iterator over the entries in descending key order.
+     *
+     * @return the descending iterator
+     */
+    public Iterator<Map.Entry<K, V>> descendingIterator() {
+        return new Cursor<>(null, null, ENTRIES, true);
+    } // descendingIterator
 
-        return enSet;
-    } // entrySet
+    /********************************************************************************
+     * Return an iterator over the entries with keys in the range [fromKey, toKey), in
+     * descending key order (a null bound is open).
+     *
+     * @param fromKey the lower bound (inclusive)
+     * @param toKey   the upper bound (exclusive)
+     * @return the descending iterator
+     */
+    public Iterator<Map.Entry<K, V>> descendingIterator(K fromKey, K toKey) {
+        return new Cursor<>(fromKey, toKey, ENTRIES, true);
+    } // descendingIterator
 
     /********************************************************************************
      * Given the key, look up the value in the B+Tree map.
@@ -122,7 +180,7 @@ public class BpTreeMap<K extends Comparable<K>, V>
      */
     @SuppressWarnings("unchecked")
     public V get(Object key) {
-        return find((K) key, getRoot());
+        return find((K) key);
     } // get
 
     /********************************************************************************
@@ -137,6 +195,125 @@ public class BpTreeMap<K extends Comparable<K>, V>
         return null;
     } // put
 
+    /********************************************************************************
+     * Remove the key (and its value) from the B+Tree map.  Nodes left under half full
+     * borrow from a sibling or are merged with it, and the root is dropped when it is
+     * left with a single child, so the tree keeps its occupancy and height bounds.
+     *
+     * @param key the key to remove
+     * @return the value the key had, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        V old = get(key);
+        if (old == null) return null;
+
+        delete((K) key, getRoot());
+        Node r = getRoot();
+        if (!r.isLeaf && r.nKeys == 0) setRoot((Node) r.ref[0]);
+        return old;
+    } // remove
+
+    /********************************************************************************
+     * Remove every entry from the B+Tree map.
+     */
+    public void clear() {
+        setRoot(new Node(true));
+    } // clear
+
+    /********************************************************************************
+     * Load this (empty) B+Tree map bottom-up from entries sorted by key.  The leaves
+     * are packed left to right and chained, then each internal level is built over the
+     * level below, so the cost is linear with no descents or splits.  A fill factor
+     * below 1 leaves room in each node for later inserts.  As with put, only the first
+     * entry for a key is kept.
+     *
+     * @param sorted     the entries in ascending key order
+     * @param fillFactor the fraction of each node to fill, in (0, 1]
+     * @throws IllegalStateException    if the map is not empty
+     * @throws IllegalArgumentException if the entries are out of order
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad(Iterator<? extends Map.Entry<K, V>> sorted, double fillFactor) {
+        if (getRoot().nKeys > 0 || !getRoot().isLeaf) {
+            throw new IllegalStateException("BpTreeMap:bulkLoad: the map is not empty");
+        } // if
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("BpTreeMap:bulkLoad: fill factor must be in (0, 1]");
+        } // if
+        int perLeaf = Math.max(1, Math.min(order - 1, (int) Math.round(fillFactor * (order - 1))));
+        int perNode = Math.max(2, Math.min(order, (int) Math.round(fillFactor * order)));
+
+        // pack the leaves, remembering the smallest key under each node
+        List<Node> level = new ArrayList<>();
+        List<K> low = new ArrayList<>();
+        Node leaf = getRoot();
+        K last = null;
+        while (sorted.hasNext()) {
+            Map.Entry<K, V> e = sorted.next();
+            if (last != null) {
+                int cmp = e.getKey().compareTo(last);
+                if (cmp < 0) throw new IllegalArgumentException("BpTreeMap:bulkLoad: keys out of order at " + e.getKey());
+                if (cmp == 0) continue;
+            } // if
+            if (leaf.nKeys == perLeaf) {
+                Node next = new Node(true);
+                leaf.ref[leaf.nKeys] = next;
+                level.add(leaf);
+                low.add(leaf.key[0]);
+                leaf = next;
+            } // if
+            leaf.key[leaf.nKeys] = e.getKey();
+            leaf.ref[leaf.nKeys++] = e.getValue();
+            last = e.getKey();
+        } // while
+        level.add(leaf);
+        low.add(leaf.key[0]);
+
+        // even out the last two leaves if the last one is under half full
+        int nLeaves = level.size();
+        if (nLeaves > 1 && leaf.nKeys < (perLeaf + 1) / 2) {
+            Node prev = level.get(nLeaves - 2);
+            int total = prev.nKeys + leaf.nKeys, keep = (total + 1) / 2, move = prev.nKeys - keep;
+            for (int i = leaf.nKeys - 1; i >= 0; i--) {
+                leaf.key[i + move] = leaf.key[i];
+                leaf.ref[i + move] = leaf.ref[i];
+            } // for
+            for (int i = 0; i < move; i++) {
+                leaf.key[i] = prev.key[keep + i];
+                leaf.ref[i] = prev.ref[keep + i];
+            } // for
+            leaf.nKeys = total - keep;
+            leaf.ref[leaf.nKeys] = null;
+            prev.nKeys = keep;
+            prev.ref[keep] = leaf;
+            low.set(nLeaves - 1, leaf.key[0]);
+        } // if
+
+        // build the internal levels, spreading the children evenly over the parents
+        while (level.size() > 1) {
+            int m = level.size();
+            int groups = Math.min((m + perNode - 1) / perNode, m / 2);
+            List<Node> up = new ArrayList<>(groups);
+            List<K> upLow = new ArrayList<>(groups);
+            for (int g = 0, c = 0; g < groups; g++) {
+                int size = m / groups + (g < m % groups ? 1 : 0);
+                Node n = new Node(false);
+                upLow.add(low.get(c));
+                n.ref[0] = level.get(c++);
+                for (int j = 1; j < size; j++, c++) {
+                    n.key[n.nKeys++] = low.get(c);
+                    n.ref[j] = level.get(c);
+                } // for
+                recount(n);
+                up.add(n);
+            } // for
+            level = up;
+            low = upLow;
+        } // while
+        setRoot(level.get(0));
+    } // bulkLoad
+
     /********************************************************************************
      * Return the first (smallest) key in the B+Tree map.
      *
@@ -176,74 +353,137 @@ public class BpTreeMap<K extends Comparable<K>, V>
     } // lastKey
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where key less than toKey.
+     * Return a live view of the portion of the B+Tree map where key less than toKey.
      *
      * @return the submap with keys in the range [firstKey, toKey)
      */
     public SortedMap<K, V> headMap(K toKey) {
-        return subMap(firstKey(), toKey);
+        return new SubMap(null, toKey);
     } // headMap
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where fromKey less or equal than key.
+     * Return a live view of the portion of the B+Tree map where fromKey less or equal
+     * than key.
      *
      * @return the submap with keys in the range [fromKey, lastKey]
      */
     public SortedMap<K, V> tailMap(K fromKey) {
-        SortedMap<K, V> tailMap = subMap(fromKey, lastKey());
-        if (fromKey.compareTo(lastKey()) <= 0) {
-            tailMap.put(lastKey(), get(lastKey()));
-        }
-
-        return tailMap;
+        return new SubMap(fromKey, null);
     } // tailMap
 
     /********************************************************************************
-     * Return the portion of the B+Tree map whose keys are between fromKey and toKey,
-     * i.e., fromKey less or equal than key less than toKey.
+     * Return a live view of the portion of the B+Tree map whose keys are between
+     * fromKey and toKey, i.e., fromKey less or equal than key less than toKey.  The
+     * view copies nothing: its iterators descend once to the leaf holding fromKey and
+     * follow the leaf chain until toKey.
      *
      * @return the submap with keys in the range [fromKey, toKey)
      */
     public SortedMap<K, V> subMap(K fromKey, K toKey) {
-        SortedMap<K, V> subMap = new TreeMap<>();
-
-        Node node = firstKeyNode();
+        if (fromKey.compareTo(toKey) > 0) throw new IllegalArgumentException("BpTreeMap:subMap: fromKey > toKey");
+        return new SubMap(fromKey, toKey);
+    } // subMap
 
-        //left most bottom
+    /********************************************************************************
+     * Return the values whose keys are between fromKey and toKey, i.e., fromKey less
+     * or equal than key less than toKey, in key order.  Only the leaves overlapping
+     * the range are visited, so the cost is O(log n + k) for k results.
+     *
+     * @param fromKey the lower bound (inclusive)
+     * @param toKey   the upper bound (exclusive)
+     * @return the list of values in the range
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> rangeValues(K fromKey, K toKey) {
+        List<V> values = new ArrayList<>();
 
-        do {
+        for (Node node = findLeaf(fromKey); node != null; node = (Node) node.ref[node.nKeys]) {
             for (int i = 0; i < node.nKeys; i++) {
-                if (node.key[i].compareTo(fromKey) >= 0 && node.key[i].compareTo(toKey) < 0) {
-                    subMap.put(node.key[i], (V) node.ref[i]);
-                }
+                if (node.key[i].compareTo(toKey) >= 0) return values;
+                if (node.key[i].compareTo(fromKey) >= 0) values.add((V) node.ref[i]);
             } // for
+        } // for
 
-            // traverse across the leaves
-            node = (Node) node.ref[node.nKeys];
-        } while (node != null);
-
-
-        return subMap;
-    } // subMap
+        return values;
+    } // rangeValues
 
     /********************************************************************************
-     * Return the size (number of keys) in the B+Tree.
+     * Return the size (number of keys) in the B+Tree.  Each internal node keeps the
+     * number of keys in its subtree, so this is O(1).
      *
      * @return the size of the B+Tree
      */
     public int size() {
-        int sum = 0;
-        Node node = firstKeyNode();
-        do {
-            // add number of keys in current leaf to sum
-            sum += node.nKeys;
-            // traverse across the leaf pointers
-            node = (Node) node.ref[node.nKeys];
+        return count(getRoot());
+    } // size
+
+    /********************************************************************************
+     * Return the rank of the key: the number of keys in the map less than it.  The
+     * descent adds up the subtree counts of the children to the left of its path.
+     *
+     * @param key the key to rank (need not be in the map)
+     * @return the number of smaller keys
+     */
+    public int rank(K key) {
+        int r = 0;
+        Node n = getRoot();
+        while (!n.isLeaf) {
+            int c = upperBound(n, key);
+            for (int j = 0; j < c; j++) r += count((Node) n.ref[j]);
+            n = (Node) n.ref[c];
+        } // while
+        return r + lowerBound(n, key);
+    } // rank
 
-        } while (node != null);
+    /********************************************************************************
+     * Return the k-th smallest key (counting from 0), found by descending through the
+     * subtree counts.
+     *
+     * @param k the position of the key in key order
+     * @return the key at position k
+     */
+    public K select(int k) {
+        if (k < 0 || k >= size()) throw new IndexOutOfBoundsException("BpTreeMap:select: " + k);
+        Node n = getRoot();
+        while (!n.isLeaf) {
+            int c = 0;
+            for (int m; k >= (m = count((Node) n.ref[c])); c++) k -= m;
+            n = (Node) n.ref[c];
+        } // while
+        return n.key[k];
+    } // select
 
-        return sum;
-    } // size
+    /********************************************************************************
+     * Return the number of keys in the range [fromKey, toKey) in O(log n), without
+     * visiting the keys (a null bound is open).
+     *
+     * @param fromKey the lower bound (inclusive)
+     * @param toKey   the upper bound (exclusive)
+     * @return the number of keys in the range
+     */
+    public int countRange(K fromKey, K toKey) {
+        int hi = (toKey == null) ? size() : rank(toKey);
+        int lo = (fromKey == null) ? 0 : rank(fromKey);
+        return Math.max(0, hi - lo);
+    } // countRange
+
+    /********************************************************************************
+     * Return the number of keys in the subtree rooted at node n.
+     */
+    private int count(Node n) {
+        return n.isLeaf ? n.nKeys : n.size;
+    } // count
+
+    /********************************************************************************
+     * Recompute the key count of internal node n from its children.
+     */
+    private void recount(Node n) {
+        int sum = 0;
+        for (int i = 0; i <= n.nKeys; i++) {
+            if (n.ref[i] != null) sum += count((Node) n.ref[i]);
+        } // for
+        n.size = sum;
+    } // recount
 
     /********************************************************************************
      * Print the B+Tree using a pre-order traveral and indenting each level.
@@ -268,25 +508,78 @@ public class BpTreeMap<K extends Comparable<K>, V>
     } // print
 
     /********************************************************************************
-     * Recursive helper function for finding a key in B+trees.
+     * Descend from the root to the leaf where the given key is or would be stored.
+     *
+     * @param key the key to locate
+     * @return the leaf node for the key
+     */
+    private Node findLeaf(K key) {
+        Node n = getRoot();
+        while (!n.isLeaf) n = (Node) n.ref[upperBound(n, key)];
+        return n;
+    } // findLeaf
+
+    /********************************************************************************
+     * Return the position of the first key in node n not less than the given key,
+     * found by binary search (n.nKeys if every key is less).
+     *
+     * @param n   the node to search
+     * @param key the key to locate
+     */
+    private int lowerBound(Node n, K key) {
+        int lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (n.key[mid].compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        return lo;
+    } // lowerBound
+
+    /********************************************************************************
+     * Return the position of the first key in node n greater than the given key,
+     * found by binary search.  In an internal node this is the child to descend into.
+     *
+     * @param n   the node to search
+     * @param key the key to locate
+     */
+    private int upperBound(Node n, K key) {
+        int lo = 0, hi = n.nKeys;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (n.key[mid].compareTo(key) <= 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        return lo;
+    } // upperBound
+
+    /********************************************************************************
+     * Find a key in the B+tree by descending iteratively from the root, counting the
+     * nodes accessed.
      *
      * @param key the key to find
-     * @param n   the current node
      */
     @SuppressWarnings("unchecked")
-    private V find(K key, Node n) {
-        setCount(getCount() + 1);
-        for (int i = 0; i < n.nKeys; i++) {
-            K k_i = n.key [i];
-            if ((key.compareTo (k_i) == 0) && (n.isLeaf)) {
-                return (key.equals (k_i)) ? (V) n.ref [i] : null;
-            } else if (key.compareTo (k_i) < 0 && (!n.isLeaf)) {
-                return find (key, (Node) n.ref [i]);
-            } // if
-        } // for
-        return (n.isLeaf) ? null : find (key, (Node) n.ref [n.nKeys]);
+    private V find(K key) {
+        Node n = getRoot();
+        count++;
+        while (!n.isLeaf) {
+            n = (Node) n.ref[upperBound(n, key)];
+            count++;
+        } // while
+        int i = lowerBound(n, key);
+        return (i < n.nKeys && key.compareTo(n.key[i]) == 0) ? (V) n.ref[i] : null;
     } // find
 
+    /********************************************************************************
+     * Return the height (number of levels) of the B+Tree.
+     */
+    public int height() {
+        int h = 1;
+        for (Node n = getRoot(); !n.isLeaf; n = (Node) n.ref[0]) h++;
+        return h;
+    } // height
+
     /********************************************************************************
      * Recursive helper function for inserting a key in B+trees.
      *
@@ -312,44 +605,24 @@ public class BpTreeMap<K extends Comparable<K>, V>
         index++;
         // find the leaf node to insert into
         while (!n.isLeaf) {
-            boolean found = false;
             parent.add(index, n);
             index++;
-            for (int i = 0; i < n.nKeys; i++) {
-                if (key.compareTo(n.key[i]) < 0) {
-                    n = (Node) n.ref[i];
-                    found = true;
-                    break;
-                } else if (key.equals(n.key[i])) {
-                    out.println("BpTreeMap:insert: attempt to insert duplicate key = " + key);
-                    return;
-                } // if           
-            } // for
-            if (!found) {
-                n = (Node) n.ref[n.nKeys];
-            } // if                      
+            n = (Node) n.ref[upperBound(n, key)];
         } // while
 
         // make sure it's not a duplicate key
-        for (int i = 0; i < n.nKeys; i++) {
-
-            if (key.equals(n.key[i])) {
-                out.println("BpTreeMap:insert: attempt to insert duplicate key = " + key);
-                return;
-            } // if
+        int pos = lowerBound(n, key);
+        if (pos < n.nKeys && key.compareTo(n.key[pos]) == 0) {
+            out.println("BpTreeMap:insert: attempt to insert duplicate key = " + key);
+            return;
+        } // if
 
-        } // for
+        // the subtree of every node on the path gains a key
+        for (int j = 1; j < index; j++) ((Node) parent.get(j)).size++;
 
         // insert if there's room in the node
-        if (n.nKeys < (ORDER - 1)) {
-            for (int i = 0; i < n.nKeys; i++) {
-                K k_i = n.key [i];
-                if (key.compareTo (k_i) < 0) {
-                    wedge (key, ref, n, i);
-                    return;
-                } // if
-            } // for
-            wedge (key, ref, n, n.nKeys);
+        if (n.nKeys < (order - 1)) {
+            wedge (key, ref, n, pos);
             return;
         } // if
 
@@ -377,6 +650,7 @@ public class BpTreeMap<K extends Comparable<K>, V>
                 // copy split value to root
                 newRoot.key[0] = sib.key[0];
                 newRoot.nKeys = 1;
+                newRoot.size = count(n) + count(sib);
 
                 // remove redundant keys
                 if (!sib.isLeaf) {
@@ -395,11 +669,9 @@ public class BpTreeMap<K extends Comparable<K>, V>
                 setRoot(newRoot);
                 finished = true;
 
-            } else if (p.nKeys < ORDER - 1) {
+            } else if (p.nKeys < order - 1) {
                 // if the parent has room, the key is wedged in at position pos
-                int pos = 0;
-                while ((pos < p.nKeys) && (sib.key[0].compareTo(p.key[pos]) > 0)) { pos++; }
-                wedge (sib.key[0], (V) sib, p, pos);
+                wedge (sib.key[0], (V) sib, p, lowerBound(p, sib.key[0]));
 
                 // remove redundant keys
                 if (!sib.isLeaf) {
@@ -439,6 +711,424 @@ public class BpTreeMap<K extends Comparable<K>, V>
         } // while
     } // insert
 
+    //----------------------------------------------------------------------------------
+    // Views
+    //----------------------------------------------------------------------------------
+
+    /**
+     * What a view or cursor yields: keys, values or entries.
+     */
+    private static final int KEYS = 0, VALUES = 1, ENTRIES = 2;
+
+    /********************************************************************************
+     * This inner class is an iterator over the keys in the range [lo, hi) (a null bound
+     * is open), ascending along the leaf chain or descending.  It holds a leaf and a
+     * position in it, so stepping allocates nothing; removal deletes the last key
+     * returned from the map and then seeks back to the same place in the tree.
+     */
+    private class Cursor<T> implements Iterator<T> {
+        private final K lo, hi;
+        private final int mode;
+        private final boolean descending;
+        private Node leaf;
+        private int i;
+        private K last;
+
+        Cursor(K _lo, K _hi, int _mode, boolean _descending) {
+            lo = _lo;
+            hi = _hi;
+            mode = _mode;
+            descending = _descending;
+            if (descending) seekBefore(hi);
+            else seek(lo);
+        } // constructor
+
+        /** Position at the first key not less than from (null: the first key). */
+        private void seek(K from) {
+            leaf = (from == null) ? firstKeyNode() : findLeaf(from);
+            i = (from == null) ? 0 : lowerBound(leaf, from);
+        } // seek
+
+        /** Position at the last key less than to (null: the last key). */
+        private void seekBefore(K to) {
+            leaf = (to == null) ? lastLeafBelow(getRoot(), null) : lastLeafBelow(getRoot(), to);
+            if (leaf == null) i = -1;
+            else i = (to == null) ? leaf.nKeys - 1 : lowerBound(leaf, to) - 1;
+        } // seekBefore
+
+        public boolean hasNext() {
+            if (descending) {
+                while (leaf != null && i < 0) {
+                    leaf = lastLeafBelow(getRoot(), leaf.key[0]);
+                    if (leaf != null) i = leaf.nKeys - 1;
+                } // while
+                return leaf != null && (lo == null || leaf.key[i].compareTo(lo) >= 0);
+            } // if
+            while (leaf != null && i >= leaf.nKeys) {
+                leaf = (Node) leaf.ref[leaf.nKeys];
+                i = 0;
+            } // while
+            return leaf != null && (hi == null || leaf.key[i].compareTo(hi) < 0);
+        } // hasNext
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            K k = leaf.key[i];
+            V v = (V) leaf.ref[i];
+            i += descending ? -1 : 1;
+            last = k;
+            if (mode == KEYS) return (T) k;
+            if (mode == VALUES) return (T) v;
+            return (T) new AbstractMap.SimpleImmutableEntry<>(k, v);
+        } // next
+
+        public void remove() {
+            if (last == null) throw new IllegalStateException();
+            BpTreeMap.this.remove(last);
+            if (descending) seekBefore(last);
+            else seek(last);
+            last = null;
+        } // remove
+    } // Cursor inner class
+
+    /********************************************************************************
+     * This inner class is a live set (or collection of values) view of the keys in
+     * the range [lo, hi) of the map.
+     */
+    private class View<T> extends AbstractSet<T> {
+        private final K lo, hi;
+        private final int mode;
+
+        View(K _lo, K _hi, int _mode) {
+            lo = _lo;
+            hi = _hi;
+            mode = _mode;
+        } // constructor
+
+        public Iterator<T> iterator() {
+            return new Cursor<>(lo, hi, mode, false);
+        } // iterator
+
+        public int size() {
+            return countRange(lo, hi);
+        } // size
+
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        } // isEmpty
+
+        @SuppressWarnings("unchecked")
+        public boolean contains(Object o) {
+            if (mode == KEYS) return inRange(o, lo, hi) && get(o) != null;
+            if (mode == ENTRIES && o instanceof Map.Entry) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                return inRange(e.getKey(), lo, hi) && Objects.equals(get(e.getKey()), e.getValue());
+            } // if
+            return super.contains(o);
+        } // contains
+
+        public boolean remove(Object o) {
+            if (mode == KEYS) return inRange(o, lo, hi) && BpTreeMap.this.remove(o) != null;
+            return super.remove(o);
+        } // remove
+    } // View inner class
+
+    /********************************************************************************
+     * This inner class is a live view of the portion of the map with keys in the range
+     * [lo, hi) (a null bound is open).  Lookups and updates go to the map; iteration
+     * runs over the leaf chain between the bounds.
+     */
+    private class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+        private final K lo, hi;
+
+        SubMap(K _lo, K _hi) {
+            lo = _lo;
+            hi = _hi;
+        } // constructor
+
+        public Comparator<? super K> comparator() {
+            return null;
+        } // comparator
+
+        public V get(Object key) {
+            return inRange(key, lo, hi) ? BpTreeMap.this.get(key) : null;
+        } // get
+
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        } // containsKey
+
+        public V put(K key, V value) {
+            if (!inRange(key, lo, hi)) throw new IllegalArgumentException("BpTreeMap: key out of range " + key);
+            return BpTreeMap.this.put(key, value);
+        } // put
+
+        public V remove(Object key) {
+            return inRange(key, lo, hi) ? BpTreeMap.this.remove(key) : null;
+        } // remove
+
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new View<>(lo, hi, ENTRIES);
+        } // entrySet
+
+        public Set<K> keySet() {
+            return new View<>(lo, hi, KEYS);
+        } // keySet
+
+        public Collection<V> values() {
+            return new View<>(lo, hi, VALUES);
+        } // values
+
+        public K firstKey() {
+            return new Cursor<K>(lo, hi, KEYS, false).next();
+        } // firstKey
+
+        public K lastKey() {
+            return new Cursor<K>(lo, hi, KEYS, true).next();
+        } // lastKey
+
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            checkBound(fromKey);
+            checkBound(toKey);
+            if (fromKey.compareTo(toKey) > 0) throw new IllegalArgumentException("BpTreeMap:subMap: fromKey > toKey");
+            return new SubMap(fromKey, toKey);
+        } // subMap
+
+        public SortedMap<K, V> headMap(K toKey) {
+            checkBound(toKey);
+            return new SubMap(lo, toKey);
+        } // headMap
+
+        public SortedMap<K, V> tailMap(K fromKey) {
+            checkBound(fromKey);
+            return new SubMap(fromKey, hi);
+        } // tailMap
+
+        /** Reject a bound outside this view's range (the upper bound itself is allowed). */
+        private void checkBound(K key) {
+            if ((lo != null && key.compareTo(lo) < 0) || (hi != null && key.compareTo(hi) > 0)) {
+                throw new IllegalArgumentException("BpTreeMap: key out of range " + key);
+            } // if
+        } // checkBound
+    } // SubMap inner class
+
+    /********************************************************************************
+     * Determine whether the key lies in the range [lo, hi) (a null bound is open).
+     */
+    @SuppressWarnings("unchecked")
+    private boolean inRange(Object key, K lo, K hi) {
+        K k = (K) key;
+        return (lo == null || k.compareTo(lo) >= 0) && (hi == null || k.compareTo(hi) < 0);
+    } // inRange
+
+    /********************************************************************************
+     * Return the leaf of the subtree rooted at n holding the largest key less than the
+     * given key (null: the largest key), or null if there is no such key.  Separator
+     * keys left behind by deletes may direct the descent to a child with no smaller
+     * key, in which case the rightmost leaf of the child to its left is used.
+     *
+     * @param n   the root of the subtree
+     * @param key the exclusive upper bound (or null)
+     */
+    private Node lastLeafBelow(Node n, K key) {
+        if (n.isLeaf) {
+            return (n.nKeys > 0 && (key == null || n.key[0].compareTo(key) < 0)) ? n : null;
+        } // if
+        for (int c = (key == null) ? n.nKeys : lowerBound(n, key), first = c; c >= 0; c--) {
+            Node leaf = lastLeafBelow((Node) n.ref[c], (c == first) ? key : null);
+            if (leaf != null) return leaf;
+        } // for
+        return null;
+    } // lastLeafBelow
+
+    /********************************************************************************
+     * Return the minimum number of keys in a non-root node.
+     *
+     * @param leaf whether the node is a leaf
+     */
+    private int minKeys(boolean leaf) {
+        return leaf ? order / 2 : (order + 1) / 2 - 1;
+    } // minKeys
+
+    /********************************************************************************
+     * Recursive helper function for deleting a key (known to be present) from the
+     * subtree rooted at node n, restoring the occupancy of any child left underfull.
+     *
+     * @param key the key to delete
+     * @param n   the current node
+     */
+    private void delete(K key, Node n) {
+        if (n.isLeaf) {
+            int i = lowerBound(n, key);
+            for (int j = i; j < n.nKeys; j++) {                 // also moves the next-leaf link
+                if (j < n.nKeys - 1) n.key[j] = n.key[j + 1];
+                n.ref[j] = n.ref[j + 1];
+            } // for
+            n.key[n.nKeys - 1] = null;
+            n.ref[n.nKeys--] = null;
+            return;
+        } // if
+
+        int c = upperBound(n, key);
+        Node child = (Node) n.ref[c];
+        n.size--;
+        delete(key, child);
+        if (child.nKeys < minKeys(child.isLeaf)) rebalance(n, c);
+    } // delete
+
+    /********************************************************************************
+     * Restore the occupancy of child c of node p by borrowing an entry from an adjacent
+     * sibling that can spare one, or else by merging the child with a sibling (which
+     * removes a key from p).
+     *
+     * @param p the parent node
+     * @param c the position of the underfull child in p
+     */
+    private void rebalance(Node p, int c) {
+        Node child = (Node) p.ref[c];
+        Node left = (c > 0) ? (Node) p.ref[c - 1] : null;
+        Node right = (c < p.nKeys) ? (Node) p.ref[c + 1] : null;
+        int min = minKeys(child.isLeaf);
+
+        if (left != null && left.nKeys > min) {
+            borrowLeft(p, c, left, child);
+        } else if (right != null && right.nKeys > min) {
+            borrowRight(p, c, child, right);
+        } else if (left != null) {
+            merge(p, c - 1, left, child);
+        } else {
+            merge(p, c, child, right);
+        } // if
+    } // rebalance
+
+    /********************************************************************************
+     * Move the last entry of the left sibling into the front of the child.
+     */
+    private void borrowLeft(Node p, int c, Node left, Node child) {
+        if (child.isLeaf) {
+            child.ref[child.nKeys + 1] = child.ref[child.nKeys];
+            for (int j = child.nKeys; j > 0; j--) {
+                child.key[j] = child.key[j - 1];
+                child.ref[j] = child.ref[j - 1];
+            } // for
+            child.key[0] = left.key[left.nKeys - 1];
+            child.ref[0] = left.ref[left.nKeys - 1];
+            left.ref[left.nKeys - 1] = left.ref[left.nKeys];
+            left.ref[left.nKeys] = null;
+            left.key[--left.nKeys] = null;
+            p.key[c - 1] = child.key[0];
+        } else {
+            child.ref[child.nKeys + 1] = child.ref[child.nKeys];
+            for (int j = child.nKeys; j > 0; j--) {
+                child.key[j] = child.key[j - 1];
+                child.ref[j] = child.ref[j - 1];
+            } // for
+            child.key[0] = p.key[c - 1];
+            child.ref[0] = left.ref[left.nKeys];
+            int moved = count((Node) child.ref[0]);
+            left.size -= moved;
+            child.size += moved;
+            p.key[c - 1] = left.key[left.nKeys - 1];
+            left.ref[left.nKeys] = null;
+            left.key[--left.nKeys] = null;
+        } // if
+        child.nKeys++;
+    } // borrowLeft
+
+    /********************************************************************************
+     * Move the first entry of the right sibling onto the end of the child.
+     */
+    private void borrowRight(Node p, int c, Node child, Node right) {
+        if (child.isLeaf) {
+            child.ref[child.nKeys + 1] = child.ref[child.nKeys];
+            child.key[child.nKeys] = right.key[0];
+            child.ref[child.nKeys] = right.ref[0];
+            for (int j = 0; j < right.nKeys; j++) {
+                if (j < right.nKeys - 1) right.key[j] = right.key[j + 1];
+                right.ref[j] = right.ref[j + 1];
+            } // for
+            right.ref[right.nKeys] = null;
+            right.key[--right.nKeys] = null;
+            p.key[c] = right.key[0];
+        } else {
+            child.key[child.nKeys] = p.key[c];
+            child.ref[child.nKeys + 1] = right.ref[0];
+            int moved = count((Node) right.ref[0]);
+            right.size -= moved;
+            child.size += moved;
+            p.key[c] = right.key[0];
+            for (int j = 0; j < right.nKeys; j++) {
+                if (j < right.nKeys - 1) right.key[j] = right.key[j + 1];
+                right.ref[j] = right.ref[j + 1];
+            } // for
+            right.ref[right.nKeys] = null;
+            right.key[--right.nKeys] = null;
+        } // if
+        child.nKeys++;
+    } // borrowRight
+
+    /********************************************************************************
+     * Merge node right into its left sibling, removing their separator (key i of p)
+     * and the reference to right from p.  An internal merge pulls the separator down.
+     */
+    private void merge(Node p, int i, Node left, Node right) {
+        if (left.isLeaf) {
+            for (int j = 0; j < right.nKeys; j++) {
+                left.key[left.nKeys + j] = right.key[j];
+                left.ref[left.nKeys + j] = right.ref[j];
+            } // for
+            left.nKeys += right.nKeys;
+            left.ref[left.nKeys] = right.ref[right.nKeys];   // next-leaf link
+        } else {
+            left.key[left.nKeys] = p.key[i];
+            for (int j = 0; j < right.nKeys; j++) {
+                left.key[left.nKeys + 1 + j] = right.key[j];
+                left.ref[left.nKeys + 1 + j] = right.ref[j];
+            } // for
+            left.ref[left.nKeys + 1 + right.nKeys] = right.ref[right.nKeys];
+            left.nKeys += right.nKeys + 1;
+            left.size += right.size;
+        } // if
+
+        for (int j = i; j < p.nKeys - 1; j++) {
+            p.key[j] = p.key[j + 1];
+            p.ref[j + 1] = p.ref[j + 2];
+        } // for
+        p.ref[p.nKeys] = null;
+        p.key[--p.nKeys] = null;
+    } // merge
+
+    /********************************************************************************
+     * Return node occupancy statistics: the height, the number of leaves and internal
+     * nodes, and how full each kind of node is on average (keys per leaf over order - 1,
+     * children per internal node over order).
+     *
+     * @return the statistics as a string
+     */
+    public String stats() {
+        long[] leaves = new long[2], internal = new long[2];         // nodes, entries
+        occupancy(getRoot(), leaves, internal);
+        return String.format("BpTreeMap (order = %d, height = %d, leaves = %d (%.1f%% full), "
+                        + "internal nodes = %d (%.1f%% full))", order, height(), leaves[0],
+                100.0 * leaves[1] / (leaves[0] * (order - 1)), internal[0],
+                (internal[0] == 0) ? 0.0 : 100.0 * internal[1] / (internal[0] * order));
+    } // stats
+
+    /********************************************************************************
+     * Recursive helper function accumulating the node and entry counts of a subtree.
+     */
+    private void occupancy(Node n, long[] leaves, long[] internal) {
+        if (n.isLeaf) {
+            leaves[0]++;
+            leaves[1] += n.nKeys;
+            return;
+        } // if
+        internal[0]++;
+        internal[1] += n.nKeys + 1;
+        for (int i = 0; i <= n.nKeys; i++) occupancy((Node) n.ref[i], leaves, internal);
+    } // occupancy
+
     /********************************************************************************
      * Wedge the key-ref pair into node n.
      * @param key  the key to insert
@@ -448,6 +1138,7 @@ public class BpTreeMap<K extends Comparable<K>, V>
      */
     private void wedge (K key, V ref, Node n, int i)
     {
+        if (n.isLeaf) n.ref [n.nKeys + 1] = n.ref [n.nKeys];      // keep the next-leaf link
         for (int j = n.nKeys; j > i; j--) {
             n.key [j] = n.key [j - 1];
             if (!n.isLeaf) { n.ref [j + 1] = n.ref [j]; }
@@ -460,58 +1151,66 @@ public class BpTreeMap<K extends Comparable<K>, V>
     } // wedge
 
     /********************************************************************************
-     * Split node n and return the newly created node.
+     * Split node n and return the newly created node.  The keys of n and the new key
+     * are divided evenly, so both nodes are at least half full: a leaf keeps the lower
+     * half, and an internal node keeps the keys below the middle one, which is left
+     * first in the sibling for the caller to pass up (and remove).
      * @param key  the key to insert
      * @param ref  the value/node to insert
      * @param n    the current node
      */
+    @SuppressWarnings("unchecked")
     private Node split (K key, V ref, Node n)
     {
-        // find middle key in n
         int numKeys = n.nKeys;
-        int mid = numKeys / 2;
+        int total = numKeys + 1;
 
         // find position to insert key
-        int pos = 0;
-        while ((pos < numKeys) && (key.compareTo(n.key[pos]) > 0)) { pos++; }
+        int pos = lowerBound(n, key);
+
+        // gather the keys and refs in order, with the new pair wedged in at pos
+        Object[] keys = new Object[total];
+        Object[] refs = new Object[total + 1];
+        int r = n.isLeaf ? 0 : 1;                            // refs offset (internal ref [0])
+        if (!n.isLeaf) refs[0] = n.ref[0];
+        for (int i = 0, j = 0; i < total; i++) {
+            if (i == pos) {
+                keys[i] = key;
+                refs[i + r] = ref;
+            } else {
+                keys[i] = n.key[j];
+                refs[i + r] = n.ref[j + r];
+                j++;
+            } // if
+        } // for
+        Object next = n.isLeaf ? n.ref[numKeys] : null;
 
         // create new sibling node
         Node sib = new Node(n.isLeaf);
+        int mid = n.isLeaf ? (total + 1) / 2 : (total - 1) / 2;
 
-        // transfer keys and values to sibling node
-        for (int i = mid; i < numKeys; i++)
-        {
-            sib.key[i-mid] = n.key[i];
-            //n.key[i] = null;
-
-            if (!n.isLeaf) {
-                sib.ref[i-mid+1] = n.ref[i+1];
-            } else {
-                sib.ref[i-mid] = n.ref[i];
-
-            } // if else
+        // refill n with the lower part
+        for (int i = 0; i < numKeys; i++) n.key[i] = (i < mid) ? (K) keys[i] : null;
+        for (int i = 0; i < order; i++) n.ref[i] = (i < mid + r) ? refs[i] : null;
+        n.nKeys = mid;
 
+        // transfer the upper part to the sibling node
+        for (int i = mid; i < total; i++) {
+            sib.key[i - mid] = (K) keys[i];
+            sib.ref[i - mid + r] = refs[i + r];
             sib.nKeys++;
-            n.nKeys--;
         } // for
 
-
-        // insert key in appropriate node
-        if (pos >= mid)
-        {
-            pos -= mid;
-            wedge (key, ref, sib, pos);
-        }
-        else
-        {
-            wedge (key, ref, n, pos);
-        } // if else
+        if (!sib.isLeaf) {
+            recount(n);
+            recount(sib);
+        } // if
 
         // if the nodes are leaves, assign sibling pointers
         if (sib.isLeaf)
         {
             // new node points to right sibling (if it exists)
-            sib.ref[sib.nKeys] = n.ref[numKeys];
+            sib.ref[sib.nKeys] = next;
 
             // current node points to new sibling
             n.ref[n.nKeys] = sib;
@@ -0,0 +1,536 @@
+/****************************************************************************************
+ * @file BufferPool.java
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/****************************************************************************************
+ * This class provides a buffer pool that caches fixed-size pages of files in a fixed
+ * number of frames.  A page is pinned while in use and may be marked dirty; when every
+ * frame is occupied, an unpinned page chosen by the replacement policy is evicted
+ * (written back first if dirty).  The pool counts hits, misses and evictions.
+ * <p>
+ * #usage BufferPool pool = new BufferPool (1024, new BufferPool.Clock (1024))
+ */
+public class BufferPool {
+    /**
+     * The size of a page (and frame) in bytes.
+     */
+    public static final int PAGE_SIZE = DbFile.PAGE_SIZE;
+
+    /********************************************************************************
+     * A replacement policy choosing the frame to evict.  The pool reports each access
+     * to a frame and asks for a victim among the frames that are not pinned.
+     */
+    public interface Replacer {
+        /**
+         * Record an access to the given frame.
+         *
+         * @param frame the frame number
+         */
+        void access(int frame);
+
+        /**
+         * Choose a frame to evict.
+         *
+         * @param pinned whether each frame is pinned (pinned frames must not be chosen)
+         * @return the frame to evict, or -1 if every frame is pinned
+         */
+        int victim(boolean[] pinned);
+    } // Replacer interface
+
+    /********************************************************************************
+     * This class is the least recently used (LRU) policy.
+     */
+    public static class LRU implements Replacer {
+        private final LinkedHashSet<Integer> order = new LinkedHashSet<>();
+
+        public void access(int frame) {
+            order.remove(frame);
+            order.add(frame);
+        } // access
+
+        public int victim(boolean[] pinned) {
+            for (int f : order) {
+                if (!pinned[f]) {
+                    order.remove(f);
+                    return f;
+                } // if
+            } // for
+            return -1;
+        } // victim
+    } // LRU class
+
+    /********************************************************************************
+     * This class is the CLOCK (second chance) policy.
+     */
+    public static class Clock implements Replacer {
+        private final boolean[] ref;
+        private int hand = 0;
+
+        public Clock(int nFrames) {
+            ref = new boolean[nFrames];
+        } // constructor
+
+        public void access(int frame) {
+            ref[frame] = true;
+        } // access
+
+        public int victim(boolean[] pinned) {
+            for (int i = 0; i < 2 * ref.length; i++) {
+                int f = hand;
+                hand = (hand + 1) % ref.length;
+                if (pinned[f]) continue;
+                if (!ref[f]) return f;
+                ref[f] = false;
+            } // for
+            return -1;
+        } // victim
+    } // Clock class
+
+    /********************************************************************************
+     * This class is the LRU-K policy: the victim is the frame whose K-th most recent
+     * access is oldest, with frames accessed fewer than K times evicted first (oldest
+     * first access among them).
+     */
+    public static class LRUK implements Replacer {
+        private final int k;
+        private final long[][] history;
+        private final int[] nAccess;
+        private long clock = 0;
+
+        public LRUK(int nFrames, int _k) {
+            k = _k;
+            history = new long[nFrames][k];
+            nAccess = new int[nFrames];
+        } // constructor
+
+        public void access(int frame) {
+            long[] h = history[frame];
+            System.arraycopy(h, 0, h, 1, k - 1);
+            h[0] = ++clock;
+            nAccess[frame]++;
+        } // access
+
+        public int victim(boolean[] pinned) {
+            int best = -1;
+            boolean bestFew = false;
+            long bestTime = Long.MAX_VALUE;
+            for (int f = 0; f < pinned.length; f++) {
+                if (pinned[f]) continue;
+                boolean few = nAccess[f] < k;
+                long time = few ? history[f][Math.max(0, nAccess[f] - 1)] : history[f][k - 1];
+                if (best < 0 || (few && !bestFew) || (few == bestFew && time < bestTime)) {
+                    best = f;
+                    bestFew = few;
+                    bestTime = time;
+                } // if
+            } // for
+            if (best >= 0) {
+                nAccess[best] = 0;
+                Arrays.fill(history[best], 0);
+            } // if
+            return best;
+        } // victim
+    } // LRUK class
+
+    /**
+     * The frames holding cached pages.
+     */
+    private final ByteBuffer[] frame;
+
+    /**
+     * The page held by each frame (null if free).
+     */
+    private final PageId[] pageOf;
+
+    /**
+     * The pin count of each frame.
+     */
+    private final int[] pinCount;
+
+    /**
+     * Whether each frame is pinned (pinCount > 0), as presented to the replacer.
+     */
+    private final boolean[] pinned;
+
+    /**
+     * Whether each frame was modified since it was read.
+     */
+    private final boolean[] dirty;
+
+    /**
+     * The page table mapping cached pages to their frames.
+     */
+    private final Map<PageId, Integer> pageTable = new HashMap<>();
+
+    /**
+     * The frames holding no page.
+     */
+    private final Deque<Integer> free = new ArrayDeque<>();
+
+    /**
+     * The replacement policy.
+     */
+    private final Replacer replacer;
+
+    /**
+     * The open files, by file id (null once closed).
+     */
+    private final List<OpenFile> files = new ArrayList<>();
+
+    /**
+     * The ids of the open files, by canonical path.
+     */
+    private final Map<String, Integer> fileIdOf = new HashMap<>();
+
+    /**
+     * Counters for performance testing.
+     */
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /********************************************************************************
+     * This class identifies a page by file id and page number.
+     */
+    private static class PageId {
+        final int file;
+        final long page;
+
+        PageId(int _file, long _page) {
+            file = _file;
+            page = _page;
+        } // constructor
+
+        public boolean equals(Object o) {
+            return o instanceof PageId && ((PageId) o).file == file && ((PageId) o).page == page;
+        } // equals
+
+        public int hashCode() {
+            return 31 * file + Long.hashCode(page);
+        } // hashCode
+    } // PageId class
+
+    /********************************************************************************
+     * This class records an open file: its channel, whether it was opened for writing,
+     * its identity on disk (so a file replaced since it was opened is reopened), and the
+     * number of opens not yet matched by a close.
+     */
+    private static class OpenFile {
+        final String path;
+        final Object key;
+        FileChannel ch;
+        boolean write;
+        int users = 1;
+
+        OpenFile(String _path, Object _key, FileChannel _ch, boolean _write) {
+            path = _path;
+            key = _key;
+            ch = _ch;
+            write = _write;
+        } // constructor
+    } // OpenFile class
+
+    /************************************************************************************
+     * Construct a buffer pool with the given number of frames and replacement policy.
+     *
+     * @param nFrames  the frame budget
+     * @param replacer the replacement policy
+     */
+    public BufferPool(int nFrames, Replacer replacer) {
+        frame = new ByteBuffer[nFrames];
+        pageOf = new PageId[nFrames];
+        pinCount = new int[nFrames];
+        pinned = new boolean[nFrames];
+        dirty = new boolean[nFrames];
+        this.replacer = replacer;
+        for (int f = 0; f < nFrames; f++) free.add(f);
+    } // constructor
+
+    /************************************************************************************
+     * Open an existing file for reading its pages through this pool.
+     *
+     * @param file the file to open
+     * @return the file id used to address its pages
+     */
+    public int open(File file) throws IOException {
+        return open(file, false);
+    } // open
+
+    /************************************************************************************
+     * Open a file whose pages are to be cached by this pool.  A file that is already
+     * open keeps its id (and cached pages), so opening it again costs no channel; it
+     * is reopened for writing if write access is now needed.  Each open should be
+     * matched by a close (fileId).  A file replaced on disk since it was opened gets a
+     * new id, and the id of the replaced file is closed at once unless one of its pages
+     * is pinned (its remaining users then find it closed).
+     *
+     * @param file  the file to open
+     * @param write whether pages will be written (the file is then created if needed)
+     * @return the file id used to address its pages
+     */
+    public synchronized int open(File file, boolean write) throws IOException {
+        if (write) file.getAbsoluteFile().getParentFile().mkdirs();
+        FileChannel ch = write
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)
+                : null;
+        try {
+            String path = file.getCanonicalPath();
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            Integer id = fileIdOf.get(path);
+            if (id != null && Objects.equals(key, files.get(id).key)) {
+                OpenFile of = files.get(id);
+                of.users++;
+                if (write && !of.write) {
+                    of.ch.close();
+                    of.ch = ch;
+                    of.write = true;
+                    ch = null;
+                } // if
+                return id;
+            } // if
+            if (id != null && !hasPinned(id)) {                // superseded by the new file
+                files.get(id).users = 1;
+                close(id);
+            } // if
+            if (!write) ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            files.add(new OpenFile(path, key, ch, write));
+            fileIdOf.put(path, files.size() - 1);
+            ch = null;
+            return files.size() - 1;
+        } finally {
+            if (ch != null) ch.close();
+        } // try
+    } // open
+
+    /************************************************************************************
+     * Close the given file once every open of it has been matched by a close: its
+     * dirty pages are written back and all its pages are evicted, returning their
+     * frames to the pool.  None of its pages may then be pinned.
+     *
+     * @param fileId the file id
+     */
+    public synchronized void close(int fileId) throws IOException {
+        OpenFile of = file(fileId);
+        if (--of.users > 0) return;
+        if (hasPinned(fileId)) {
+            of.users++;
+            throw new IllegalStateException("BufferPool: file " + fileId + " has pinned pages");
+        } // if
+        try {
+            for (int f = 0; f < frame.length; f++) {
+                if (pageOf[f] == null || pageOf[f].file != fileId) continue;
+                if (dirty[f]) writeBack(f);
+                pageTable.remove(pageOf[f]);
+                pageOf[f] = null;
+                free.add(f);
+            } // for
+            if (of.write) of.ch.force(false);
+        } finally {
+            of.ch.close();
+            files.set(fileId, null);
+            fileIdOf.remove(of.path, fileId);
+        } // try
+    } // close
+
+    /************************************************************************************
+     * Return the number of pages currently in the file (including any allocated but
+     * not yet written back).
+     *
+     * @param fileId the file id
+     * @return the number of pages
+     */
+    public synchronized long pageCount(int fileId) throws IOException {
+        long n = (file(fileId).ch.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (PageId id : pageTable.keySet()) {
+            if (id.file == fileId) n = Math.max(n, id.page + 1);
+        } // for
+        return n;
+    } // pageCount
+
+    /************************************************************************************
+     * Pin the given page, reading it into a frame unless it is already cached.  The
+     * returned buffer is a view of the frame (position 0, limit PAGE_SIZE) and is valid
+     * until the page is unpinned.  Pages past the end of the file read as zeros.
+     *
+     * @param fileId the file id
+     * @param page   the page number
+     * @return the frame holding the page
+     */
+    public synchronized ByteBuffer pin(int fileId, long page) throws IOException {
+        PageId id = new PageId(fileId, page);
+        Integer f = pageTable.get(id);
+        if (f != null) {
+            hits++;
+        } else {
+            FileChannel ch = file(fileId).ch;
+            misses++;
+            f = grabFrame();
+            ByteBuffer buf = frame[f];
+            buf.clear();
+            long pos = page * PAGE_SIZE;
+            try {
+                while (buf.hasRemaining()) {
+                    int n = ch.read(buf, pos + buf.position());
+                    if (n < 0) break;
+                } // while
+            } catch (IOException | RuntimeException ex) {
+                free.add(f);                                         // the frame holds no page
+                throw ex;
+            } // try
+            while (buf.hasRemaining()) buf.put((byte) 0);
+            pageOf[f] = id;
+            dirty[f] = false;
+            pageTable.put(id, f);
+        } // if
+        pinCount[f]++;
+        pinned[f] = true;
+        replacer.access(f);
+        ByteBuffer buf = frame[f].duplicate();
+        buf.clear();
+        return buf;
+    } // pin
+
+    /************************************************************************************
+     * Unpin the given page, marking it dirty if it was modified.
+     *
+     * @param fileId   the file id
+     * @param page     the page number
+     * @param modified whether the caller changed the page
+     */
+    public synchronized void unpin(int fileId, long page, boolean modified) {
+        Integer f = pageTable.get(new PageId(fileId, page));
+        if (f == null || pinCount[f] == 0) {
+            out.println("BufferPool:unpin: page " + page + " of file " + fileId + " is not pinned");
+            return;
+        } // if
+        OpenFile of = files.get(fileId);
+        if (modified && (of == null || !of.write)) {
+            out.println("BufferPool:unpin: file " + fileId + " is open read-only");
+        } else if (modified) {
+            dirty[f] = true;
+        } // if
+        if (--pinCount[f] == 0) pinned[f] = false;
+    } // unpin
+
+    /************************************************************************************
+     * Write every dirty page back to its file.
+     */
+    public synchronized void flush() throws IOException {
+        for (int f = 0; f < frame.length; f++) {
+            if (pageOf[f] != null && dirty[f]) writeBack(f);
+        } // for
+        for (OpenFile of : files) {
+            if (of != null && of.write) of.ch.force(false);
+        } // for
+    } // flush
+
+    /************************************************************************************
+     * Flush the pool and close all its files.
+     */
+    public synchronized void close() throws IOException {
+        flush();
+        for (int id = 0; id < files.size(); id++) {
+            if (files.get(id) != null) files.get(id).ch.close();
+            files.set(id, null);                                // ids are not reused
+        } // for
+        fileIdOf.clear();
+    } // close
+
+    /************************************************************************************
+     * Determine whether any page of the given file is pinned.
+     *
+     * @param fileId the file id
+     * @return whether a page of the file is pinned
+     */
+    private boolean hasPinned(int fileId) {
+        for (int f = 0; f < frame.length; f++) {
+            if (pageOf[f] != null && pageOf[f].file == fileId && pinCount[f] > 0) return true;
+        } // for
+        return false;
+    } // hasPinned
+
+    /************************************************************************************
+     * Return the open file with the given id.
+     *
+     * @param fileId the file id
+     * @return the open file
+     */
+    private OpenFile file(int fileId) {
+        OpenFile of = (fileId >= 0 && fileId < files.size()) ? files.get(fileId) : null;
+        if (of == null) throw new IllegalArgumentException("BufferPool: file " + fileId + " is not open");
+        return of;
+    } // file
+
+    /************************************************************************************
+     * Return a free frame, evicting a page chosen by the replacer if necessary.
+     *
+     * @return the frame number
+     */
+    private int grabFrame() throws IOException {
+        if (!free.isEmpty()) {
+            int f = free.poll();
+            if (frame[f] == null) frame[f] = ByteBuffer.allocateDirect(PAGE_SIZE);
+            return f;
+        } // if
+        int f = replacer.victim(pinned);
+        if (f < 0) throw new IllegalStateException("BufferPool: every frame is pinned");
+        if (dirty[f]) writeBack(f);
+        pageTable.remove(pageOf[f]);
+        pageOf[f] = null;
+        evictions++;
+        return f;
+    } // grabFrame
+
+    /************************************************************************************
+     * Write the page in frame f back to its file.
+     *
+     * @param f the frame number
+     */
+    private void writeBack(int f) throws IOException {
+        ByteBuffer buf = frame[f].duplicate();
+        buf.clear();
+        FileChannel ch = files.get(pageOf[f].file).ch;
+        long pos = pageOf[f].page * PAGE_SIZE;
+        while (buf.hasRemaining()) ch.write(buf, pos + buf.position());
+        dirty[f] = false;
+    } // writeBack
+
+    /************************************************************************************
+     * Return the number of page requests served from the pool.
+     */
+    public synchronized long getHits() {
+        return hits;
+    } // getHits
+
+    /************************************************************************************
+     * Return the number of page requests that had to read the page.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    } // getMisses
+
+    /************************************************************************************
+     * Return the number of pages evicted.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    } // getEvictions
+
+    /************************************************************************************
+     * Return the hit/miss/eviction counters as a string.
+     */
+    public synchronized String stats() {
+        return "BufferPool (frames = " + frame.length + ", hits = " + hits + ", misses = " + misses
+                + ", evictions = " + evictions + ")";
+    } // stats
+
+} // BufferPool class
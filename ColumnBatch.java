@@ -0,0 +1,416 @@
+/****************************************************************************************
+ * @file ColumnBatch.java
+ */
+
+import java.util.*;
+
+/****************************************************************************************
+ * This class holds a batch of up to SIZE rows laid out by column, together with a
+ * selection vector listing the positions of the rows still qualifying.  Filters narrow
+ * the selection vector one whole column at a time, so the per-row work is a tight loop
+ * over an array rather than a predicate call per tuple.  Numeric and character columns
+ * are held in primitive arrays (int [] for int, short, byte and char; long []; double []
+ * for double and float), and the built-in filters have a loop specialised to each.
+ */
+public class ColumnBatch {
+    /**
+     * The maximum number of rows in a batch.
+     */
+    public static final int SIZE = 1024;
+
+    /********************************************************************************
+     * A filter over one column of a batch.  It keeps the selected positions whose value
+     * satisfies the filter by compacting them to the front of sel.
+     */
+    @FunctionalInterface
+    public interface Filter {
+        /**
+         * Filter the selected positions of a column.
+         *
+         * @param column the column values of the batch
+         * @param sel    the selection vector (compacted in place)
+         * @param nSel   the number of selected positions on entry
+         * @return the number of selected positions on exit
+         */
+        int apply(Comparable[] column, int[] sel, int nSel);
+    } // Filter interface
+
+    /**
+     * The kinds of column: int, long, double or object values.
+     */
+    static final byte INT = 0, LONG = 1, DOUBLE = 2, OBJECT = 3;
+
+    /**
+     * The domain of each loaded column.
+     */
+    final Class[] domain;
+
+    /**
+     * The kind of each loaded column.
+     */
+    final byte[] kind;
+
+    /**
+     * The values of the loaded columns, one array per column in the array of its kind
+     * (the other arrays hold null for that column): e.g. ints[j][i] is the j-th loaded
+     * column of row i when kind[j] is INT.
+     */
+    final int[][] ints;
+    final long[][] longs;
+    final double[][] doubles;
+    final Comparable[][] objects;
+
+    /**
+     * A scratch column for boxing a primitive column for a user-supplied filter.
+     */
+    private Comparable[] boxed;
+
+    /**
+     * The selection vector: positions (within the batch) of the qualifying rows.
+     */
+    final int[] sel = new int[SIZE];
+
+    /**
+     * The number of rows loaded into the batch.
+     */
+    int nRows;
+
+    /**
+     * The number of qualifying rows (prefix of sel).
+     */
+    int nSel;
+
+    /************************************************************************************
+     * Construct an empty batch for columns from the given domains.
+     *
+     * @param _domain the domains of the columns to load per batch
+     */
+    ColumnBatch(Class[] _domain) {
+        int nCols = _domain.length;
+        domain = _domain;
+        kind = new byte[nCols];
+        ints = new int[nCols][];
+        longs = new long[nCols][];
+        doubles = new double[nCols][];
+        objects = new Comparable[nCols][];
+        for (int j = 0; j < nCols; j++) {
+            Class dom = domain[j];
+            if (dom == Integer.class || dom == Short.class || dom == Byte.class || dom == Character.class) {
+                kind[j] = INT;
+                ints[j] = new int[SIZE];
+            } else if (dom == Long.class) {
+                kind[j] = LONG;
+                longs[j] = new long[SIZE];
+            } else if (dom == Double.class || dom == Float.class) {
+                kind[j] = DOUBLE;
+                doubles[j] = new double[SIZE];
+            } else {
+                kind[j] = OBJECT;
+                objects[j] = new Comparable[SIZE];
+            } // if
+        } // for
+    } // constructor
+
+    /************************************************************************************
+     * Load the given columns of the rows starting at position from, and select them all.
+     * Columns of a ColumnStore are copied straight from its arrays.
+     *
+     * @param tuples the rows to load from
+     * @param from   the position of the first row to load
+     * @param cols   the positions of the columns to load
+     */
+    void load(List<Comparable[]> tuples, int from, int[] cols) {
+        nRows = Math.min(SIZE, tuples.size() - from);
+        if (tuples instanceof ColumnStore) {
+            ColumnStore store = (ColumnStore) tuples;
+            for (int j = 0; j < cols.length; j++) {
+                switch (kind[j]) {
+                case INT: store.copy(cols[j], from, nRows, ints[j]); break;
+                case LONG: store.copy(cols[j], from, nRows, longs[j]); break;
+                case DOUBLE: store.copy(cols[j], from, nRows, doubles[j]); break;
+                default: store.copy(cols[j], from, nRows, objects[j]);
+                } // switch
+            } // for
+        } else {
+            for (int i = 0; i < nRows; i++) {
+                Comparable[] tup = tuples.get(from + i);
+                for (int j = 0; j < cols.length; j++) set(j, i, tup[cols[j]]);
+            } // for
+        } // if
+        for (int i = 0; i < nRows; i++) sel[i] = i;
+        nSel = nRows;
+    } // load
+
+    /************************************************************************************
+     * Store value v as row i of the j-th loaded column.
+     *
+     * @param j the loaded column
+     * @param i the row within the batch
+     * @param v the value (from the column's domain)
+     */
+    private void set(int j, int i, Comparable v) {
+        switch (kind[j]) {
+        case INT: ints[j][i] = (v instanceof Character) ? (Character) v : ((Number) v).intValue(); break;
+        case LONG: longs[j][i] = (Long) v; break;
+        case DOUBLE: doubles[j][i] = ((Number) v).doubleValue(); break;
+        default: objects[j][i] = v;
+        } // switch
+    } // set
+
+    /************************************************************************************
+     * Return row i of the j-th loaded column, boxed as a value of the column's domain.
+     *
+     * @param j the loaded column
+     * @param i the row within the batch
+     * @return the value
+     */
+    Comparable get(int j, int i) {
+        switch (kind[j]) {
+        case INT: {
+            int v = ints[j][i];
+            if (domain[j] == Integer.class) return v;
+            if (domain[j] == Short.class) return (short) v;
+            if (domain[j] == Byte.class) return (byte) v;
+            return (char) v;
+        }
+        case LONG: return longs[j][i];
+        case DOUBLE: return (domain[j] == Float.class) ? (Comparable) (float) doubles[j][i] : doubles[j][i];
+        default: return objects[j][i];
+        } // switch
+    } // get
+
+    /************************************************************************************
+     * Apply a filter to the j-th loaded column, narrowing the selection vector.  The
+     * built-in filters run their loop for the column's primitive array; any other filter
+     * is given the column boxed.
+     *
+     * @param j      the loaded column to filter
+     * @param filter the filter to apply
+     */
+    void filter(int j, Filter filter) {
+        if (nSel == 0) return;
+        if (filter instanceof Compare) {
+            Compare f = (Compare) filter;
+            switch (kind[j]) {
+            case INT: nSel = f.apply(ints[j], sel, nSel); return;
+            case LONG: nSel = f.apply(longs[j], sel, nSel); return;
+            case DOUBLE: nSel = f.apply(doubles[j], sel, nSel); return;
+            } // switch
+        } // if
+        Comparable[] column = objects[j];
+        if (column == null) {
+            if (boxed == null) boxed = new Comparable[SIZE];
+            column = boxed;
+            for (int k = 0; k < nSel; k++) column[sel[k]] = get(j, sel[k]);
+        } // if
+        nSel = filter.apply(column, sel, nSel);
+    } // filter
+
+    //----------------------------------------------------------------------------------
+    // Filters
+    //----------------------------------------------------------------------------------
+
+    /********************************************************************************
+     * A comparison filter (one of the built-in filters).  Its bounds are converted once
+     * to long and double, and each kind of column has its own loop: int columns compare
+     * as doubles (exact for every int), long columns as longs (so their bounds must be
+     * integers) and objects with equals and compareTo.
+     */
+    static final class Compare implements Filter {
+        static final byte EQ = 0, NE = 1, LT = 2, GT = 3, BETWEEN = 4;
+
+        final byte op;
+        final Comparable lo, hi;
+        final boolean numeric, integral;
+        final long lLo, lHi;
+        final double dLo, dHi;
+
+        Compare(byte _op, Comparable _lo, Comparable _hi) {
+            op = _op;
+            lo = _lo;
+            hi = _hi;
+            numeric = isNumeric(lo) && isNumeric(hi);
+            integral = numeric && !isReal(lo) && !isReal(hi);
+            lLo = numeric ? toLong(lo) : 0;
+            lHi = numeric ? toLong(hi) : 0;
+            dLo = numeric ? toDouble(lo) : 0;
+            dHi = numeric ? toDouble(hi) : 0;
+        } // constructor
+
+        private static boolean isNumeric(Comparable v) {
+            return v instanceof Number || v instanceof Character;
+        } // isNumeric
+
+        private static boolean isReal(Comparable v) {
+            return v instanceof Double || v instanceof Float;
+        } // isReal
+
+        private static long toLong(Comparable v) {
+            return (v instanceof Character) ? (Character) v : ((Number) v).longValue();
+        } // toLong
+
+        private static double toDouble(Comparable v) {
+            return (v instanceof Character) ? (Character) v : ((Number) v).doubleValue();
+        } // toDouble
+
+        /**
+         * Throw if the bounds cannot be compared with a primitive column (exactly, for
+         * a long column).
+         */
+        private void check(boolean ok) {
+            if (!ok) throw new ClassCastException("ColumnBatch: cannot compare column with " + lo);
+        } // check
+
+        int apply(int[] column, int[] sel, int nSel) {
+            check(numeric);
+            int k = 0;
+            switch (op) {
+            case EQ:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] == dLo) sel[k++] = r; }
+                break;
+            case NE:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] != dLo) sel[k++] = r; }
+                break;
+            case LT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] < dLo) sel[k++] = r; }
+                break;
+            case GT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] > dLo) sel[k++] = r; }
+                break;
+            default:
+                for (int i = 0; i < nSel; i++) {
+                    int r = sel[i];
+                    if (column[r] >= dLo && column[r] < dHi) sel[k++] = r;
+                } // for
+            } // switch
+            return k;
+        } // apply
+
+        int apply(long[] column, int[] sel, int nSel) {
+            check(integral);
+            int k = 0;
+            switch (op) {
+            case EQ:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] == lLo) sel[k++] = r; }
+                break;
+            case NE:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] != lLo) sel[k++] = r; }
+                break;
+            case LT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] < lLo) sel[k++] = r; }
+                break;
+            case GT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] > lLo) sel[k++] = r; }
+                break;
+            default:
+                for (int i = 0; i < nSel; i++) {
+                    int r = sel[i];
+                    if (column[r] >= lLo && column[r] < lHi) sel[k++] = r;
+                } // for
+            } // switch
+            return k;
+        } // apply
+
+        int apply(double[] column, int[] sel, int nSel) {
+            check(numeric);
+            int k = 0;
+            switch (op) {
+            case EQ:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] == dLo) sel[k++] = r; }
+                break;
+            case NE:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] != dLo) sel[k++] = r; }
+                break;
+            case LT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] < dLo) sel[k++] = r; }
+                break;
+            case GT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r] > dLo) sel[k++] = r; }
+                break;
+            default:
+                for (int i = 0; i < nSel; i++) {
+                    int r = sel[i];
+                    if (column[r] >= dLo && column[r] < dHi) sel[k++] = r;
+                } // for
+            } // switch
+            return k;
+        } // apply
+
+        @SuppressWarnings("unchecked")
+        public int apply(Comparable[] column, int[] sel, int nSel) {
+            int k = 0;
+            switch (op) {
+            case EQ:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (lo.equals(column[r])) sel[k++] = r; }
+                break;
+            case NE:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (!lo.equals(column[r])) sel[k++] = r; }
+                break;
+            case LT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r].compareTo(lo) < 0) sel[k++] = r; }
+                break;
+            case GT:
+                for (int i = 0; i < nSel; i++) { int r = sel[i]; if (column[r].compareTo(lo) > 0) sel[k++] = r; }
+                break;
+            default:
+                for (int i = 0; i < nSel; i++) {
+                    int r = sel[i];
+                    if (column[r].compareTo(lo) >= 0 && column[r].compareTo(hi) < 0) sel[k++] = r;
+                } // for
+            } // switch
+            return k;
+        } // apply
+    } // Compare class
+
+    /************************************************************************************
+     * Return a filter keeping the values equal to v.
+     *
+     * @param v the value to compare with
+     * @return the filter
+     */
+    public static Filter eq(Comparable v) {
+        return new Compare(Compare.EQ, v, v);
+    } // eq
+
+    /************************************************************************************
+     * Return a filter keeping the values not equal to v.
+     *
+     * @param v the value to compare with
+     * @return the filter
+     */
+    public static Filter ne(Comparable v) {
+        return new Compare(Compare.NE, v, v);
+    } // ne
+
+    /************************************************************************************
+     * Return a filter keeping the values less than v.
+     *
+     * @param v the value to compare with
+     * @return the filter
+     */
+    public static Filter lt(Comparable v) {
+        return new Compare(Compare.LT, v, v);
+    } // lt
+
+    /************************************************************************************
+     * Return a filter keeping the values greater than v.
+     *
+     * @param v the value to compare with
+     * @return the filter
+     */
+    public static Filter gt(Comparable v) {
+        return new Compare(Compare.GT, v, v);
+    } // gt
+
+    /************************************************************************************
+     * Return a filter keeping the values in the range [lo, hi).
+     *
+     * @param lo the lower bound (inclusive)
+     * @param hi the upper bound (exclusive)
+     * @return the filter
+     */
+    public static Filter between(Comparable lo, Comparable hi) {
+        return new Compare(Compare.BETWEEN, lo, hi);
+    } // between
+
+} // ColumnBatch class
@@ -0,0 +1,367 @@
+/****************************************************************************************
+ * @file ColumnStore.java
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+/****************************************************************************************
+ * This class stores the tuples of a table by column.  Each numeric or character domain
+ * is kept in a primitive array (int [], long [], short [], byte [], double [], float [],
+ * char []) and strings in a String array, or as int codes into a per-column dictionary
+ * once encoded, so a row costs only the width of its values rather than an array of
+ * boxed objects.  The store is a List of tuples, so the table
+ * operators work on it unchanged: get materializes a tuple from the columns and add
+ * splits a tuple into them.
+ */
+public class ColumnStore
+        extends AbstractList<Comparable[]>
+        implements RandomAccess, Serializable {
+    /**
+     * The initial capacity (rows) of each column.
+     */
+    private static final int INIT_CAP = 16;
+
+    /**
+     * The columns, one per attribute.
+     */
+    private final Column[] column;
+
+    /**
+     * The number of rows stored.
+     */
+    private int nRows = 0;
+
+    /**
+     * The number of rows each column has room for.
+     */
+    private int capacity = INIT_CAP;
+
+    /********************************************************************************
+     * This abstract class is a growable column of values from one domain.
+     */
+    abstract static class Column implements Serializable {
+        /** Return the value in row i. */
+        abstract Comparable get(int i);
+
+        /** Store value v in row i. */
+        abstract void set(int i, Comparable v);
+
+        /** Resize the column to hold cap rows. */
+        abstract void resize(int cap);
+
+        /** Copy the values of rows [from, from + n) into dest. */
+        void copy(int from, int n, Comparable[] dest) {
+            for (int i = 0; i < n; i++) dest[i] = get(from + i);
+        } // copy
+
+        /** Copy the values of rows [from, from + n) into dest (int, short, byte, char). */
+        void copy(int from, int n, int[] dest) {
+            throw new UnsupportedOperationException("ColumnStore: column is not int-valued");
+        } // copy
+
+        /** Copy the values of rows [from, from + n) into dest (long). */
+        void copy(int from, int n, long[] dest) {
+            throw new UnsupportedOperationException("ColumnStore: column is not long-valued");
+        } // copy
+
+        /** Copy the values of rows [from, from + n) into dest (double, float). */
+        void copy(int from, int n, double[] dest) {
+            throw new UnsupportedOperationException("ColumnStore: column is not real-valued");
+        } // copy
+    } // Column class
+
+    private static class IntColumn extends Column {
+        int[] v = new int[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Integer) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, int[] dest) { System.arraycopy(v, from, dest, 0, n); }
+    } // IntColumn class
+
+    private static class LongColumn extends Column {
+        long[] v = new long[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Long) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, long[] dest) { System.arraycopy(v, from, dest, 0, n); }
+    } // LongColumn class
+
+    private static class ShortColumn extends Column {
+        short[] v = new short[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Short) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, int[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+    } // ShortColumn class
+
+    private static class ByteColumn extends Column {
+        byte[] v = new byte[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Byte) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, int[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+    } // ByteColumn class
+
+    private static class DoubleColumn extends Column {
+        double[] v = new double[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Double) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, double[] dest) { System.arraycopy(v, from, dest, 0, n); }
+    } // DoubleColumn class
+
+    private static class FloatColumn extends Column {
+        float[] v = new float[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Float) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, double[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+    } // FloatColumn class
+
+    private static class CharColumn extends Column {
+        char[] v = new char[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (Character) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+        void copy(int from, int n, int[] dest) { for (int i = 0; i < n; i++) dest[i] = v[from + i]; }
+    } // CharColumn class
+
+    private static class StringColumn extends Column {
+        String[] v = new String[INIT_CAP];
+        Comparable get(int i) { return v[i]; }
+        void set(int i, Comparable x) { v[i] = (String) x; }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+        void copy(int from, int n, Comparable[] dest) { System.arraycopy(v, from, dest, 0, n); }
+    } // StringColumn class
+
+    /********************************************************************************
+     * This class stores a String column as int codes into a dictionary of the distinct
+     * strings, so repeated values share one String and compare as ints.
+     */
+    private static class DictColumn extends Column {
+        int[] v;
+        final List<String> dict = new ArrayList<>();
+        final Map<String, Integer> codeOf = new HashMap<>();
+
+        DictColumn(int cap) { v = new int[cap]; }
+        Comparable get(int i) { return dict.get(v[i]); }
+        void resize(int cap) { v = Arrays.copyOf(v, cap); }
+
+        void set(int i, Comparable x) {
+            Integer c = codeOf.get(x);
+            if (c == null) {
+                c = dict.size();
+                dict.add((String) x);
+                codeOf.put((String) x, c);
+            } // if
+            v[i] = c;
+        } // set
+    } // DictColumn class
+
+    /************************************************************************************
+     * Construct an empty column store for tuples from the given domains.
+     *
+     * @param domain the attribute domains (one column per domain)
+     */
+    public ColumnStore(Class[] domain) {
+        column = new Column[domain.length];
+        for (int j = 0; j < domain.length; j++) column[j] = newColumn(domain[j]);
+    } // constructor
+
+    /************************************************************************************
+     * Create an empty column suited to the given domain.
+     *
+     * @param dom the domain of the column
+     * @return the new column
+     */
+    private static Column newColumn(Class dom) {
+        if (dom == Integer.class) return new IntColumn();
+        if (dom == Long.class) return new LongColumn();
+        if (dom == Short.class) return new ShortColumn();
+        if (dom == Byte.class) return new ByteColumn();
+        if (dom == Double.class) return new DoubleColumn();
+        if (dom == Float.class) return new FloatColumn();
+        if (dom == Character.class) return new CharColumn();
+        if (dom == String.class) return new StringColumn();
+        throw new IllegalArgumentException("ColumnStore: unsupported domain " + dom);
+    } // newColumn
+
+    /************************************************************************************
+     * Return the number of rows stored.
+     */
+    public int size() {
+        return nRows;
+    } // size
+
+    /************************************************************************************
+     * Return the tuple in row i, assembled from the columns.
+     *
+     * @param i the row number
+     * @return a new array holding the row's values
+     */
+    public Comparable[] get(int i) {
+        return get(i, new Comparable[column.length], 0);
+    } // get
+
+    /************************************************************************************
+     * Copy the values of row i into dest starting at position off, so a scan can reuse
+     * one row buffer (or fill part of an output tuple) instead of allocating a tuple
+     * per row.
+     *
+     * @param i    the row number
+     * @param dest the destination (room for one value per column from off)
+     * @param off  the position in dest of the first column's value
+     * @return dest
+     */
+    public Comparable[] get(int i, Comparable[] dest, int off) {
+        if (i < 0 || i >= nRows) throw new IndexOutOfBoundsException("row " + i);
+        for (int j = 0; j < column.length; j++) dest[off + j] = column[j].get(i);
+        return dest;
+    } // get
+
+    /************************************************************************************
+     * Return the value of column j in row i without assembling the tuple.
+     *
+     * @param i the row number
+     * @param j the column number
+     * @return the value
+     */
+    public Comparable get(int i, int j) {
+        return column[j].get(i);
+    } // get
+
+    /************************************************************************************
+     * Append a tuple, splitting its values into the columns.
+     *
+     * @param tup the tuple to append (its values must match the column domains)
+     * @return true
+     */
+    public boolean add(Comparable[] tup) {
+        if (nRows == capacity) {
+            capacity *= 2;
+            for (Column c : column) c.resize(capacity);
+        } // if
+        for (int j = 0; j < column.length; j++) column[j].set(nRows, tup[j]);
+        nRows++;
+        modCount++;
+        return true;
+    } // add
+
+    /************************************************************************************
+     * Dictionary-encode String column j: its values are replaced by int codes into a
+     * dictionary holding each distinct string once.  Encoding an already encoded
+     * column has no effect.
+     *
+     * @param j the column number
+     * @return whether column j is (now) dictionary-encoded
+     */
+    public boolean encode(int j) {
+        if (column[j] instanceof DictColumn) return true;
+        if (!(column[j] instanceof StringColumn)) return false;
+
+        DictColumn dc = new DictColumn(capacity);
+        for (int i = 0; i < nRows; i++) dc.set(i, column[j].get(i));
+        column[j] = dc;
+        return true;
+    } // encode
+
+    /************************************************************************************
+     * Return whether column j is dictionary-encoded.
+     *
+     * @param j the column number
+     * @return whether the column stores codes
+     */
+    public boolean isEncoded(int j) {
+        return column[j] instanceof DictColumn;
+    } // isEncoded
+
+    /************************************************************************************
+     * Return the code array of dictionary-encoded column j (valid for rows [0, size)).
+     *
+     * @param j the column number
+     * @return the codes, one per row
+     */
+    int[] codes(int j) {
+        return ((DictColumn) column[j]).v;
+    } // codes
+
+    /************************************************************************************
+     * Return the dictionary of encoded column j, indexed by code.
+     *
+     * @param j the column number
+     * @return the distinct strings of the column
+     */
+    List<String> dictionary(int j) {
+        return ((DictColumn) column[j]).dict;
+    } // dictionary
+
+    /************************************************************************************
+     * Return the code of string v in encoded column j.
+     *
+     * @param j the column number
+     * @param v the string to look up
+     * @return the code, or -1 if v does not occur in the column
+     */
+    int code(int j, Comparable v) {
+        Integer c = ((DictColumn) column[j]).codeOf.get(v);
+        return (c == null) ? -1 : c;
+    } // code
+
+    /************************************************************************************
+     * Copy the values of column j for rows [from, from + n) into dest.
+     *
+     * @param j    the column number
+     * @param from the first row to copy
+     * @param n    the number of rows to copy
+     * @param dest the destination array
+     */
+    void copy(int j, int from, int n, Comparable[] dest) {
+        column[j].copy(from, n, dest);
+    } // copy
+
+    /************************************************************************************
+     * Copy the values of int, short, byte or char column j for rows [from, from + n)
+     * into dest, straight from the column's primitive array.
+     *
+     * @param j    the column number
+     * @param from the first row to copy
+     * @param n    the number of rows to copy
+     * @param dest the destination array
+     */
+    void copy(int j, int from, int n, int[] dest) {
+        column[j].copy(from, n, dest);
+    } // copy
+
+    /************************************************************************************
+     * Copy the values of long column j for rows [from, from + n) into dest.
+     *
+     * @param j    the column number
+     * @param from the first row to copy
+     * @param n    the number of rows to copy
+     * @param dest the destination array
+     */
+    void copy(int j, int from, int n, long[] dest) {
+        column[j].copy(from, n, dest);
+    } // copy
+
+    /************************************************************************************
+     * Copy the values of double or float column j for rows [from, from + n) into dest.
+     *
+     * @param j    the column number
+     * @param from the first row to copy
+     * @param n    the number of rows to copy
+     * @param dest the destination array
+     */
+    void copy(int j, int from, int n, double[] dest) {
+        column[j].copy(from, n, dest);
+    } // copy
+
+} // ColumnStore class
@@ -0,0 +1,411 @@
+/****************************************************************************************
+ * @file ConcurrentBpTreeMap.java
+ */
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/****************************************************************************************
+ * This class provides a thread-safe B+Tree map using optimistic lock coupling.  Every
+ * node carries a StampedLock used as a version: readers take no locks, they read a node
+ * under an optimistic stamp and validate it after reading the child pointer (or the
+ * value), restarting from the root if a writer changed the node meanwhile.  Writers
+ * descend the same way and write-lock only the node they change, plus its parent when
+ * the node must be split.  Full internal nodes are split on the way down, so a split
+ * never has to propagate past the parent.
+ * <p>
+ * Keys cannot be removed; iteration is weakly consistent (it reflects the map at some
+ * point during or after each leaf is read).
+ * <p>
+ * #usage ConcurrentBpTreeMap <KeyType, Integer> idx = new ConcurrentBpTreeMap <> (128)
+ */
+public class ConcurrentBpTreeMap<K extends Comparable<K>, V>
+        extends AbstractMap<K, V> {
+    /**
+     * The default maximum fanout for a node.
+     */
+    private static final int ORDER = 64;
+
+    /**
+     * The maximum fanout of a node.
+     */
+    private final int order;
+
+    /********************************************************************************
+     * This class defines the nodes of the tree.  The fields other than the lock are
+     * written only under the node's write lock and read under an optimistic stamp.
+     */
+    private static final class Node {
+        final boolean isLeaf;
+        final StampedLock lock = new StampedLock();
+        final Object[] key;
+        final Object[] ref;                          // values (leaf) or children
+        int nKeys;
+        Node next;                                   // the next leaf
+
+        Node(boolean _isLeaf, int order) {
+            isLeaf = _isLeaf;
+            key = new Object[order - 1];
+            ref = new Object[order];
+        } // constructor
+    } // Node class
+
+    /**
+     * The root of the tree.
+     */
+    private volatile Node root;
+
+    /**
+     * The number of entries.
+     */
+    private final LongAdder size = new LongAdder();
+
+    /********************************************************************************
+     * Construct an empty map with the default fanout.
+     */
+    public ConcurrentBpTreeMap() {
+        this(ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty map whose nodes have the given maximum fanout.
+     *
+     * @param _order the maximum fanout of a node (at least 4)
+     */
+    public ConcurrentBpTreeMap(int _order) {
+        if (_order < 4) throw new IllegalArgumentException("ConcurrentBpTreeMap: order must be at least 4");
+        order = _order;
+        root = new Node(true, order);
+    } // constructor
+
+    /********************************************************************************
+     * Return the number of entries in the map.
+     */
+    public int size() {
+        return size.intValue();
+    } // size
+
+    /********************************************************************************
+     * Given the key, look up the value without taking any lock.
+     *
+     * @param key the key used for look up
+     * @return the value associated with the key, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        K k = (K) key;
+        restart:
+        for (;;) {
+            Node n = root;
+            long v = n.lock.tryOptimisticRead();
+            if (v == 0 || n != root) continue;
+
+            while (!n.isLeaf) {
+                int c = upperBound(n, k);
+                Node child = (c < 0) ? null : (Node) n.ref[c];
+                if (child == null || !n.lock.validate(v)) continue restart;
+                long cv = child.lock.tryOptimisticRead();
+                if (cv == 0 || !n.lock.validate(v)) continue restart;
+                n = child;
+                v = cv;
+            } // while
+
+            int i = lowerBound(n, k);
+            if (i < 0) continue;
+            Object found = (i < n.nKeys && k.compareTo((K) n.key[i]) == 0) ? n.ref[i] : null;
+            if (!n.lock.validate(v)) continue;
+            return (V) found;
+        } // for
+    } // get
+
+    /********************************************************************************
+     * Return whether the map contains the given key.
+     *
+     * @param key the key to look for
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the map, replacing the value of an existing key.
+     *
+     * @param key   the key to insert
+     * @param value the value to insert (not null)
+     * @return the previous value of the key, or null if it was absent
+     */
+    public V put(K key, V value) {
+        return insert(key, value, false);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the map unless the key is already present.
+     *
+     * @param key   the key to insert
+     * @param value the value to insert (not null)
+     * @return the current value of the key, or null if the pair was inserted
+     */
+    public V putIfAbsent(K key, V value) {
+        return insert(key, value, true);
+    } // putIfAbsent
+
+    /********************************************************************************
+     * Insert (or update) a key, descending with optimistic lock coupling.  A full node
+     * met on the way is split first (locking it and its parent) and the descent
+     * restarts; the leaf itself is write-locked only to change it.
+     *
+     * @param key      the key to insert
+     * @param value    the value to insert
+     * @param ifAbsent whether to keep the value of an existing key
+     * @return the previous value of the key, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    private V insert(K key, V value, boolean ifAbsent) {
+        if (key == null || value == null) throw new NullPointerException();
+        restart:
+        for (;;) {
+            Node n = root;
+            long v = n.lock.tryOptimisticRead();
+            if (v == 0 || n != root) continue;
+            Node parent = null;
+            long pv = 0;
+
+            for (;;) {
+                if (n.nKeys == order - 1) {                       // full: split and restart
+                    split(parent, pv, n, v);
+                    continue restart;
+                } // if
+                if (n.isLeaf) break;
+
+                int c = upperBound(n, key);
+                Node child = (c < 0) ? null : (Node) n.ref[c];
+                if (child == null || !n.lock.validate(v)) continue restart;
+                long cv = child.lock.tryOptimisticRead();
+                if (cv == 0 || !n.lock.validate(v)) continue restart;
+                parent = n;
+                pv = v;
+                n = child;
+                v = cv;
+            } // for
+
+            long stamp = n.lock.tryConvertToWriteLock(v);
+            if (stamp == 0) continue;
+            try {
+                int i = lowerBound(n, key);
+                if (i < n.nKeys && key.compareTo((K) n.key[i]) == 0) {
+                    V old = (V) n.ref[i];
+                    if (!ifAbsent) n.ref[i] = value;
+                    return old;
+                } // if
+                System.arraycopy(n.key, i, n.key, i + 1, n.nKeys - i);
+                System.arraycopy(n.ref, i, n.ref, i + 1, n.nKeys - i);
+                n.key[i] = key;
+                n.ref[i] = value;
+                n.nKeys++;
+                size.increment();
+                return null;
+            } finally {
+                n.lock.unlockWrite(stamp);
+            } // try
+        } // for
+    } // insert
+
+    /********************************************************************************
+     * Split full node n, whose parent (null for the root) is not full.  Both nodes are
+     * write-locked by converting the stamps taken during the descent; if either was
+     * changed since, nothing is done and the caller restarts.
+     *
+     * @param parent the parent of n (or null)
+     * @param pv     the stamp of the parent
+     * @param n      the node to split
+     * @param v      the stamp of n
+     */
+    private void split(Node parent, long pv, Node n, long v) {
+        long ps = 0;
+        if (parent != null && (ps = parent.lock.tryConvertToWriteLock(pv)) == 0) return;
+        long ns = n.lock.tryConvertToWriteLock(v);
+        if (ns == 0) {
+            if (parent != null) parent.lock.unlockWrite(ps);
+            return;
+        } // if
+
+        int mid = n.nKeys / 2;
+        Node sib = new Node(n.isLeaf, order);
+        Object sep;
+        if (n.isLeaf) {
+            sib.nKeys = n.nKeys - mid;
+            System.arraycopy(n.key, mid, sib.key, 0, sib.nKeys);
+            System.arraycopy(n.ref, mid, sib.ref, 0, sib.nKeys);
+            sep = sib.key[0];
+            sib.next = n.next;
+            n.next = sib;
+        } else {
+            sep = n.key[mid];
+            sib.nKeys = n.nKeys - mid - 1;
+            System.arraycopy(n.key, mid + 1, sib.key, 0, sib.nKeys);
+            System.arraycopy(n.ref, mid + 1, sib.ref, 0, sib.nKeys + 1);
+        } // if
+        Arrays.fill(n.key, mid, n.nKeys, null);
+        Arrays.fill(n.ref, n.isLeaf ? mid : mid + 1, n.nKeys + 1, null);
+        n.nKeys = mid;
+
+        if (parent == null) {
+            Node r = new Node(false, order);
+            r.key[0] = sep;
+            r.ref[0] = n;
+            r.ref[1] = sib;
+            r.nKeys = 1;
+            root = r;
+        } else {
+            int i = upperBoundOf(parent, sep);
+            System.arraycopy(parent.key, i, parent.key, i + 1, parent.nKeys - i);
+            System.arraycopy(parent.ref, i + 1, parent.ref, i + 2, parent.nKeys - i);
+            parent.key[i] = sep;
+            parent.ref[i + 1] = sib;
+            parent.nKeys++;
+            parent.lock.unlockWrite(ps);
+        } // if
+        n.lock.unlockWrite(ns);
+    } // split
+
+    /********************************************************************************
+     * Return the entries in key order.  The iterator reads one leaf at a time under an
+     * optimistic stamp, re-descending from the last key returned if the leaf changed.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            public int size() {
+                return ConcurrentBpTreeMap.this.size();
+            } // size
+
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Iterator<Map.Entry<K, V>>() {
+                    private final List<Map.Entry<K, V>> buf = new ArrayList<>();
+                    private int pos = 0;
+                    private K last = null;
+                    private boolean done = false;
+
+                    public boolean hasNext() {
+                        if (pos == buf.size() && !done) {
+                            buf.clear();
+                            pos = 0;
+                            done = !readAfter(last, buf);
+                            if (!buf.isEmpty()) last = buf.get(buf.size() - 1).getKey();
+                        } // if
+                        return pos < buf.size();
+                    } // hasNext
+
+                    public Map.Entry<K, V> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return buf.get(pos++);
+                    } // next
+                };
+            } // iterator
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Copy into dest the entries of the first leaf holding keys greater than after
+     * (all keys if after is null), as of a consistent version of that leaf.
+     *
+     * @param after the last key already returned (or null)
+     * @param dest  the list receiving the entries
+     * @return whether there may be more entries after those copied
+     */
+    @SuppressWarnings("unchecked")
+    private boolean readAfter(K after, List<Map.Entry<K, V>> dest) {
+        restart:
+        for (;;) {
+            dest.clear();
+            Node n = root;
+            long v = n.lock.tryOptimisticRead();
+            if (v == 0 || n != root) continue;
+            while (!n.isLeaf) {
+                int c = (after == null) ? 0 : upperBound(n, after);
+                Node child = (c < 0) ? null : (Node) n.ref[c];
+                if (child == null || !n.lock.validate(v)) continue restart;
+                long cv = child.lock.tryOptimisticRead();
+                if (cv == 0 || !n.lock.validate(v)) continue restart;
+                n = child;
+                v = cv;
+            } // while
+
+            for (;;) {
+                int nk = Math.min(n.nKeys, order - 1);
+                for (int i = 0; i < nk; i++) {
+                    K k = (K) n.key[i];
+                    Object val = n.ref[i];
+                    if (k == null || val == null) continue restart;
+                    if (after == null || k.compareTo(after) > 0) {
+                        dest.add(new AbstractMap.SimpleImmutableEntry<>(k, (V) val));
+                    } // if
+                } // for
+                Node next = n.next;
+                if (!n.lock.validate(v)) continue restart;
+                if (!dest.isEmpty()) return next != null;
+                if (next == null) return false;
+                long nv = next.lock.tryOptimisticRead();
+                if (nv == 0) continue restart;
+                n = next;
+                v = nv;
+            } // for
+        } // for
+    } // readAfter
+
+    /********************************************************************************
+     * Return the position of the first key of node n not less than key, reading the
+     * node optimistically.
+     *
+     * @return the position, or -1 if the node was seen in an inconsistent state
+     */
+    @SuppressWarnings("unchecked")
+    private int lowerBound(Node n, K key) {
+        int lo = 0, hi = Math.min(n.nKeys, order - 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            K k = (K) n.key[mid];
+            if (k == null) return -1;
+            if (k.compareTo(key) < 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        return lo;
+    } // lowerBound
+
+    /********************************************************************************
+     * Return the position of the first key of node n greater than key (the child to
+     * descend into), reading the node optimistically.
+     *
+     * @return the position, or -1 if the node was seen in an inconsistent state
+     */
+    @SuppressWarnings("unchecked")
+    private int upperBound(Node n, K key) {
+        int lo = 0, hi = Math.min(n.nKeys, order - 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            K k = (K) n.key[mid];
+            if (k == null) return -1;
+            if (k.compareTo(key) <= 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        return lo;
+    } // upperBound
+
+    /********************************************************************************
+     * Return the position of the first key of write-locked node n greater than key.
+     */
+    @SuppressWarnings("unchecked")
+    private int upperBoundOf(Node n, Object key) {
+        return upperBound(n, (K) key);
+    } // upperBoundOf
+
+    /********************************************************************************
+     * Return the height (number of levels) of the tree.
+     */
+    public int height() {
+        int h = 1;
+        for (Node n = root; !n.isLeaf; n = (Node) n.ref[0]) h++;
+        return h;
+    } // height
+
+} // ConcurrentBpTreeMap class
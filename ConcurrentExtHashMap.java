@@ -0,0 +1,342 @@
+/****************************************************************************************
+ * @file ConcurrentExtHashMap.java
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/****************************************************************************************
+ * This class provides a thread-safe hash map using Extendable Hashing (see ExtHashMap).
+ * Readers take no locks.  A writer locks only the key's bucket, so puts to different
+ * buckets do not contend; a split additionally takes the directory lock.
+ * <p>
+ * Buckets are append-only: an entry is written before the bucket's (volatile) key count
+ * is raised, and values are replaced with release stores, so a reader always sees whole
+ * entries.  A bucket is never split in place.  Its entries are copied into two new
+ * buckets, the directory slots are repointed, and only then is the old bucket marked
+ * retired.  A reader (or writer) that finds its bucket retired rereads the directory,
+ * which then leads to the new buckets.  The directory is doubled by copying it and
+ * publishing the copy, so a reader holding the old array still sees a consistent
+ * directory.
+ * <p>
+ * Keys cannot be removed; iteration is weakly consistent and never returns a key twice.
+ * <p>
+ * #usage ConcurrentExtHashMap <Integer, Integer> map = new ConcurrentExtHashMap <> (16)
+ */
+public class ConcurrentExtHashMap<K, V>
+        extends AbstractMap<K, V> {
+    /**
+     * The default number of slots (for key-value pairs) per bucket.
+     */
+    private static final int SLOTS = 16;
+
+    /**
+     * Release/acquire access to the value arrays.
+     */
+    private static final VarHandle VALUE = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /**
+     * Release/acquire access to the directory slots.
+     */
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Bucket[].class);
+
+    /********************************************************************************
+     * This class defines the buckets.  The hash, key and value of entry j are written
+     * before nKeys is raised past j; afterwards only the value changes.
+     */
+    private static final class Bucket {
+        final int depth;
+        final int[] hash;
+        final Object[] key;
+        final Object[] value;
+        volatile int nKeys = 0;
+        volatile boolean retired = false;
+
+        Bucket(int _depth, int slots) {
+            depth = _depth;
+            hash = new int[slots];
+            key = new Object[slots];
+            value = new Object[slots];
+        } // constructor
+    } // Bucket class
+
+    /**
+     * The number of slots per new bucket.
+     */
+    private final int slots;
+
+    /**
+     * The directory (replaced by a doubled copy when the global depth grows).
+     */
+    private volatile Bucket[] dir;
+
+    /**
+     * The global depth (read and written under dirLock).
+     */
+    private int depth;
+
+    /**
+     * The lock serializing changes to the directory.
+     */
+    private final Object dirLock = new Object();
+
+    /**
+     * The number of entries.
+     */
+    private final LongAdder size = new LongAdder();
+
+    /********************************************************************************
+     * Construct an empty map with the default bucket capacity.
+     */
+    public ConcurrentExtHashMap() {
+        this(SLOTS);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty map with the given bucket capacity.
+     *
+     * @param _slots the number of key-value pairs per bucket
+     */
+    public ConcurrentExtHashMap(int _slots) {
+        if (_slots < 1) throw new IllegalArgumentException("ConcurrentExtHashMap: slots must be positive");
+        slots = _slots;
+        depth = 0;
+        dir = new Bucket[]{new Bucket(0, slots)};
+    } // constructor
+
+    /********************************************************************************
+     * Return the number of entries in the map.
+     */
+    public int size() {
+        return size.intValue();
+    } // size
+
+    /********************************************************************************
+     * Given the key, look up the value without taking any lock.
+     *
+     * @param key the key used for look up
+     * @return the value associated with the key, or null if absent
+     */
+    public V get(Object key) {
+        int hk = hash(key);
+        for (;;) {
+            Bucket[] d = dir;
+            Bucket b = (Bucket) SLOT.getAcquire(d, hk & (d.length - 1));
+            int j = find(b, hk, key);
+            @SuppressWarnings("unchecked")
+            V found = (j < 0) ? null : (V) VALUE.getAcquire(b.value, j);
+            if (!b.retired) return found;
+        } // for
+    } // get
+
+    /********************************************************************************
+     * Return whether the map contains the given key.
+     *
+     * @param key the key to look for
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Put the key-value pair in the map, replacing the value of an existing key.
+     *
+     * @param key   the key to insert
+     * @param value the value to insert (not null)
+     * @return the previous value of the key, or null if it was absent
+     */
+    public V put(K key, V value) {
+        return insert(key, value, false);
+    } // put
+
+    /********************************************************************************
+     * Put the key-value pair in the map unless the key is already present.
+     *
+     * @param key   the key to insert
+     * @param value the value to insert (not null)
+     * @return the current value of the key, or null if the pair was inserted
+     */
+    public V putIfAbsent(K key, V value) {
+        return insert(key, value, true);
+    } // putIfAbsent
+
+    /********************************************************************************
+     * Insert (or update) a key under its bucket's lock.  A full bucket is split (or,
+     * if its keys cannot be separated, replaced by a larger one) and the insert
+     * retries.
+     *
+     * @param key      the key to insert
+     * @param value    the value to insert
+     * @param ifAbsent whether to keep the value of an existing key
+     * @return the previous value of the key, or null if it was absent
+     */
+    @SuppressWarnings("unchecked")
+    private V insert(K key, V value, boolean ifAbsent) {
+        if (value == null) throw new NullPointerException("ConcurrentExtHashMap: null value");
+        int hk = hash(key);
+        for (;;) {
+            Bucket[] d = dir;
+            Bucket b = (Bucket) SLOT.getAcquire(d, hk & (d.length - 1));
+            synchronized (b) {
+                if (b.retired) continue;
+                int j = find(b, hk, key);
+                if (j >= 0) {
+                    V old = (V) b.value[j];
+                    if (!ifAbsent) VALUE.setRelease(b.value, j, value);
+                    return old;
+                } // if
+                int n = b.nKeys;
+                if (n < b.key.length) {
+                    b.hash[n] = hk;
+                    b.key[n] = key;
+                    b.value[n] = value;
+                    b.nKeys = n + 1;                                 // publish the entry
+                    size.increment();
+                    return null;
+                } // if
+                split(b, hk);
+            } // synchronized
+        } // for
+    } // insert
+
+    /********************************************************************************
+     * Replace full bucket b (locked by the caller) with two buckets split on hash bit
+     * d (its local depth), doubling the directory first if d equals the global depth.
+     * If all its keys have the same hash, b is replaced by one bucket of twice the
+     * capacity instead.  The replacements are filled before the directory slots that
+     * referenced b are repointed, and b is retired last.
+     *
+     * @param b  the bucket to split
+     * @param hk the hash of a key that belongs in b
+     */
+    private void split(Bucket b, int hk) {
+        synchronized (dirLock) {
+            int n = b.nKeys;
+            int bit = 1 << b.depth;
+            Bucket b0, b1;
+            if (sameHash(b, n)) {
+                b0 = b1 = new Bucket(b.depth, 2 * b.key.length);
+                copy(b, n, b0, 0, 0);
+            } else {
+                if (b.depth == depth) {
+                    Bucket[] d = dir;
+                    Bucket[] d2 = Arrays.copyOf(d, 2 * d.length);
+                    System.arraycopy(d, 0, d2, d.length, d.length);
+                    dir = d2;
+                    depth++;
+                } // if
+                b0 = new Bucket(b.depth + 1, b.key.length);         // a grown bucket may go
+                b1 = new Bucket(b.depth + 1, b.key.length);         // all to one side
+                copy(b, n, b0, bit, 0);
+                copy(b, n, b1, bit, bit);
+            } // if
+
+            Bucket[] d = dir;
+            for (int i = hk & (bit - 1); i < d.length; i += bit) {
+                SLOT.setRelease(d, i, ((i & bit) == 0) ? b0 : b1);
+            } // for
+            b.retired = true;
+        } // synchronized
+    } // split
+
+    /********************************************************************************
+     * Copy the first n entries of bucket src whose hash has the given bits (under
+     * mask) into the empty bucket dst, then publish them.
+     */
+    private static void copy(Bucket src, int n, Bucket dst, int mask, int bits) {
+        int m = 0;
+        for (int j = 0; j < n; j++) {
+            if ((src.hash[j] & mask) != bits) continue;
+            dst.hash[m] = src.hash[j];
+            dst.key[m] = src.key[j];
+            dst.value[m++] = src.value[j];
+        } // for
+        dst.nKeys = m;
+    } // copy
+
+    /********************************************************************************
+     * Return whether the first n entries of bucket b all have the same hash.
+     */
+    private static boolean sameHash(Bucket b, int n) {
+        for (int j = 1; j < n; j++) {
+            if (b.hash[j] != b.hash[0]) return false;
+        } // for
+        return true;
+    } // sameHash
+
+    /********************************************************************************
+     * Return the position of the key among the published entries of bucket b.
+     *
+     * @return the position, or -1 if the key is absent
+     */
+    private static int find(Bucket b, int hk, Object key) {
+        int n = b.nKeys;
+        for (int j = 0; j < n; j++) {
+            if (b.hash[j] == hk && key.equals(b.key[j])) return j;
+        } // for
+        return -1;
+    } // find
+
+    /********************************************************************************
+     * Hash the key, folding the high bits into the low bits that select the slot.
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    } // hash
+
+    /********************************************************************************
+     * Return a weakly consistent set view of the entries.  Every entry present when
+     * iteration starts is returned exactly once.
+     * <p>
+     * The iterator walks the hash space in bit-reversed order.  A bucket of local depth
+     * d holds the hashes sharing their low d bits, which reversed form one contiguous
+     * range, so the iterator visits the live bucket covering its position and then
+     * moves past that bucket's whole range.  A later split only divides a range already
+     * passed (or not yet reached), so entries copied to new buckets are not returned
+     * again, even when the split repoints slots without doubling the directory.
+     */
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            public int size() {
+                return ConcurrentExtHashMap.this.size();
+            } // size
+
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new Iterator<Map.Entry<K, V>>() {
+                    private long pos = 0;                           // in [0, 2^32], bit-reversed
+                    private int j = 0, n = 0;
+                    private Bucket b = null;
+
+                    public boolean hasNext() {
+                        while (j >= n) {
+                            if (pos >= 1L << 32) return false;
+                            int h = Integer.reverse((int) pos);
+                            do {
+                                Bucket[] d = dir;
+                                b = (Bucket) SLOT.getAcquire(d, h & (d.length - 1));
+                                n = b.nKeys;
+                            } while (b.retired);
+                            int shift = 32 - b.depth;
+                            pos = ((pos >>> shift) + 1) << shift;   // past the bucket's range
+                            j = 0;
+                        } // while
+                        return true;
+                    } // hasNext
+
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<K, V> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        Map.Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<>(
+                                (K) b.key[j], (V) VALUE.getAcquire(b.value, j));
+                        j++;
+                        return e;
+                    } // next
+                };
+            } // iterator
+        };
+    } // entrySet
+
+} // ConcurrentExtHashMap class
@@ -0,0 +1,532 @@
+/****************************************************************************************
+ * @file DbFile.java
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/****************************************************************************************
+ * This class defines the binary paged format of database (.dbf) files.  A file is a
+ * sequence of fixed-size pages.  The leading header pages hold the schema (table name,
+ * attribute names, domains, primary key and storage options) and the page and tuple
+ * counts.  Each following data page holds an int count of the tuples it contains and
+ * then the tuples, each value written in a fixed-width binary form for its domain
+ * (strings as an int length and UTF-8 bytes).  Tuples never span pages.  A string longer
+ * than OVERFLOW bytes is stored instead in a run of overflow pages (data pages holding
+ * no tuples, whose bytes after the count carry the string), and the tuple holds the
+ * string's length (negated, minus one) and the number of its first overflow page.  If a
+ * tuple's shorter strings together still overflow a page, its longest ones are moved
+ * out of line the same way until it fits.
+ * <p>
+ * A file is written under a temporary name and moved into place when complete, so a
+ * failed write leaves any previous file intact.
+ */
+public class DbFile {
+    /**
+     * The size of a page in bytes.
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    /**
+     * The longest string (in UTF-8 bytes) stored within its tuple's page.
+     */
+    static final int OVERFLOW = 1024;
+
+    /**
+     * The number of string bytes carried by an overflow page.
+     */
+    private static final int OVERFLOW_BYTES = PAGE_SIZE - 4;
+
+    /**
+     * The magic number identifying the format ("DBF1").
+     */
+    private static final int MAGIC = 0x44424631;
+
+    /**
+     * The domains that can be stored, indexed by their type code.
+     */
+    private static final Class[] TYPES = {Integer.class, Long.class, Short.class, Byte.class,
+            Double.class, Float.class, Character.class, String.class};
+
+    /**
+     * The table name.
+     */
+    final String name;
+
+    /**
+     * The attribute names.
+     */
+    final String[] attribute;
+
+    /**
+     * The attribute domains.
+     */
+    final Class[] domain;
+
+    /**
+     * The primary key.
+     */
+    final String[] key;
+
+    /**
+     * Whether the table stores its tuples by column.
+     */
+    final boolean columnar;
+
+    /**
+     * Whether each attribute is dictionary-encoded (columnar tables only).
+     */
+    final boolean[] encoded;
+
+    /**
+     * The type code of each attribute's domain.
+     */
+    private final byte[] type;
+
+    /**
+     * The number of header pages preceding the data pages.
+     */
+    int headerPages;
+
+    /**
+     * The number of data pages.
+     */
+    int nPages;
+
+    /**
+     * The number of tuples stored.
+     */
+    long nTuples;
+
+    /************************************************************************************
+     * Construct the description of a database file with the given schema.
+     *
+     * @param _name      the table name
+     * @param _attribute the attribute names
+     * @param _domain    the attribute domains
+     * @param _key       the primary key
+     * @param _columnar  whether the table stores its tuples by column
+     * @param _encoded   whether each attribute is dictionary-encoded
+     */
+    DbFile(String _name, String[] _attribute, Class[] _domain, String[] _key,
+           boolean _columnar, boolean[] _encoded) {
+        name = _name;
+        attribute = _attribute;
+        domain = _domain;
+        key = _key;
+        columnar = _columnar;
+        encoded = _encoded;
+        type = new byte[domain.length];
+        for (int j = 0; j < domain.length; j++) {
+            type[j] = (byte) Arrays.asList(TYPES).indexOf(domain[j]);
+            if (type[j] < 0) throw new IllegalArgumentException("DbFile: unsupported domain " + domain[j]);
+        } // for
+    } // constructor
+
+    /************************************************************************************
+     * Return the byte offset of data page p within the file.
+     *
+     * @param p the data page number
+     * @return the offset of the page
+     */
+    long pageOffset(int p) {
+        return (long) (headerPages + p) * PAGE_SIZE;
+    } // pageOffset
+
+    //----------------------------------------------------------------------------------
+    // Writing
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Write the tuples to the given file in the paged format, replacing its contents.
+     * The pages are written to a temporary file that replaces the given file (by an
+     * atomic rename) only once it is complete.
+     *
+     * @param file   the file to write
+     * @param tuples the tuples to store
+     */
+    void write(File file, List<Comparable[]> tuples) throws IOException {
+        byte[] header = encodeHeader();
+        headerPages = (header.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        nPages = 0;
+        nTuples = tuples.size();
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Path tmp = Paths.get(file.getPath() + ".tmp");
+        boolean done = false;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer page = ByteBuffer.allocateDirect(PAGE_SIZE);
+            ByteBuffer ovf = ByteBuffer.allocateDirect(PAGE_SIZE);
+            int[] first = new int[type.length];
+            page.putInt(0);
+            int nRows = 0;
+            ch.position((long) headerPages * PAGE_SIZE);
+
+            for (Comparable[] tup : tuples) {
+                writeOverflow(ch, ovf, tup, first);
+                int mark = page.position();
+                if (!encodeTuple(tup, page, first)) {
+                    page.position(mark);
+                    if (nRows > 0) {
+                        writePage(ch, page, nRows);
+                        page.putInt(0);
+                        nRows = 0;
+                        mark = page.position();
+                    } // if
+                    //too big for an empty page: move its largest strings out of line
+                    while (!encodeTuple(tup, page, first)) {
+                        page.position(mark);
+                        if (!spillLargest(ch, ovf, tup, first)) {
+                            throw new IOException("DbFile: tuple larger than a page");
+                        } // if
+                    } // while
+                } // if
+                nRows++;
+            } // for
+            if (nRows > 0) writePage(ch, page, nRows);
+
+            //the header is written last, once the counts are known
+            header = encodeHeader();
+            ByteBuffer hbuf = ByteBuffer.allocate(headerPages * PAGE_SIZE);
+            hbuf.put(header).clear();
+            ch.write(hbuf, 0);
+            done = true;
+        } finally {
+            if (!done) Files.deleteIfExists(tmp);
+        } // try
+        Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } // write
+
+    /************************************************************************************
+     * Write the strings of the tuple longer than OVERFLOW bytes to overflow pages.
+     *
+     * @param ch    the channel to write to
+     * @param ovf   a page buffer for the overflow pages
+     * @param tup   the tuple
+     * @param first receives the first overflow page of each such string (-1 for the
+     *              other attributes)
+     */
+    private void writeOverflow(FileChannel ch, ByteBuffer ovf, Comparable[] tup, int[] first)
+            throws IOException {
+        for (int j = 0; j < tup.length; j++) {
+            first[j] = -1;
+            if (type[j] != 7 || ((String) tup[j]).length() * 3 <= OVERFLOW) continue;
+            byte[] b = ((String) tup[j]).getBytes(StandardCharsets.UTF_8);
+            if (b.length <= OVERFLOW) continue;
+            first[j] = writeString(ch, ovf, b);
+        } // for
+    } // writeOverflow
+
+    /************************************************************************************
+     * Move the longest string of the tuple still stored inline to overflow pages, for a
+     * tuple whose inline strings together do not fit in a page.
+     *
+     * @param ch    the channel to write to
+     * @param ovf   a page buffer for the overflow pages
+     * @param tup   the tuple
+     * @param first the first overflow page of each attribute stored out of line, or -1
+     *              (updated for the string moved)
+     * @return whether a string was moved (false if none would save space)
+     */
+    private boolean spillLargest(FileChannel ch, ByteBuffer ovf, Comparable[] tup, int[] first)
+            throws IOException {
+        int best = -1;
+        byte[] bestBytes = null;
+        for (int j = 0; j < tup.length; j++) {
+            if (type[j] != 7 || first[j] >= 0) continue;
+            byte[] b = ((String) tup[j]).getBytes(StandardCharsets.UTF_8);
+            if (b.length > 4 && (bestBytes == null || b.length > bestBytes.length)) {
+                best = j;
+                bestBytes = b;
+            } // if
+        } // for
+        if (best < 0) return false;
+        first[best] = writeString(ch, ovf, bestBytes);
+        return true;
+    } // spillLargest
+
+    /************************************************************************************
+     * Write a string's bytes to a run of overflow pages.
+     *
+     * @param ch  the channel to write to
+     * @param ovf a page buffer for the overflow pages
+     * @param b   the UTF-8 bytes of the string
+     * @return the number of the first overflow page
+     */
+    private int writeString(FileChannel ch, ByteBuffer ovf, byte[] b) throws IOException {
+        int start = nPages;
+        for (int off = 0; off < b.length; off += OVERFLOW_BYTES) {
+            ovf.putInt(0).put(b, off, Math.min(OVERFLOW_BYTES, b.length - off));
+            writePage(ch, ovf, 0);
+        } // for
+        return start;
+    } // writeString
+
+    /************************************************************************************
+     * Fill in the tuple count of the page, write it out padded to PAGE_SIZE and reset it.
+     *
+     * @param ch    the channel to write to
+     * @param page  the page buffer
+     * @param nRows the number of tuples in the page
+     */
+    private void writePage(FileChannel ch, ByteBuffer page, int nRows) throws IOException {
+        page.putInt(0, nRows);
+        while (page.hasRemaining()) page.put((byte) 0);
+        page.flip();
+        while (page.hasRemaining()) ch.write(page);
+        page.clear();
+        nPages++;
+    } // writePage
+
+    /************************************************************************************
+     * Encode one tuple at the current position of the page.
+     *
+     * @param tup   the tuple to encode
+     * @param page  the page buffer
+     * @param first the first overflow page of each attribute stored out of line, or -1
+     * @return whether the tuple fit in the page (the position is undefined if not)
+     */
+    private boolean encodeTuple(Comparable[] tup, ByteBuffer page, int[] first) {
+        for (int j = 0; j < tup.length; j++) {
+            Comparable v = tup[j];
+            if (first[j] >= 0) {
+                if (page.remaining() < 8) return false;
+                page.putInt(-1 - ((String) v).getBytes(StandardCharsets.UTF_8).length).putInt(first[j]);
+                continue;
+            } // if
+            int size = (type[j] == 7) ? 4 + ((String) v).length() * 3 : 8;
+            if (page.remaining() < size) {
+                if (type[j] != 7) return false;
+                byte[] b = ((String) v).getBytes(StandardCharsets.UTF_8);
+                if (page.remaining() < 4 + b.length) return false;
+                page.putInt(b.length).put(b);
+                continue;
+            } // if
+            switch (type[j]) {
+            case 0: page.putInt((Integer) v); break;
+            case 1: page.putLong((Long) v); break;
+            case 2: page.putShort((Short) v); break;
+            case 3: page.put((Byte) v); break;
+            case 4: page.putDouble((Double) v); break;
+            case 5: page.putFloat((Float) v); break;
+            case 6: page.putChar((Character) v); break;
+            default:
+                byte[] b = ((String) v).getBytes(StandardCharsets.UTF_8);
+                page.putInt(b.length).put(b);
+            } // switch
+        } // for
+        return true;
+    } // encodeTuple
+
+    /************************************************************************************
+     * Encode the header (schema and counts).
+     *
+     * @return the header bytes
+     */
+    private byte[] encodeHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        dos.writeInt(MAGIC);
+        dos.writeInt(PAGE_SIZE);
+        dos.writeInt(headerPages);
+        dos.writeInt(nPages);
+        dos.writeLong(nTuples);
+        dos.writeUTF(name);
+        dos.writeBoolean(columnar);
+        dos.writeInt(attribute.length);
+        for (int j = 0; j < attribute.length; j++) {
+            dos.writeUTF(attribute[j]);
+            dos.writeByte(type[j]);
+            dos.writeBoolean(encoded[j]);
+        } // for
+        dos.writeInt(key.length);
+        for (String k : key) dos.writeUTF(k);
+        dos.close();
+        return bytes.toByteArray();
+    } // encodeHeader
+
+    //----------------------------------------------------------------------------------
+    // Reading
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Open a database file and read its header.
+     *
+     * @param ch the channel of the file to open
+     * @return the description of the file
+     */
+    static DbFile open(FileChannel ch) throws IOException {
+        ByteBuffer first = ByteBuffer.allocate(PAGE_SIZE);
+        while (first.hasRemaining() && ch.read(first, first.position()) > 0) ;
+        first.flip();
+        if (first.remaining() < 12 || first.getInt(0) != MAGIC) {
+            throw new IOException("DbFile: not a database file");
+        } // if
+        if (first.getInt(4) != PAGE_SIZE) throw new IOException("DbFile: unsupported page size");
+
+        int hPages = first.getInt(8);
+        ByteBuffer hbuf = ByteBuffer.allocate(hPages * PAGE_SIZE);
+        while (hbuf.hasRemaining() && ch.read(hbuf, hbuf.position()) > 0) ;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(hbuf.array()));
+
+        dis.readInt();
+        dis.readInt();
+        dis.readInt();
+        int pages = dis.readInt();
+        long tuples = dis.readLong();
+        String name = dis.readUTF();
+        boolean columnar = dis.readBoolean();
+        int nAttrs = dis.readInt();
+        String[] attribute = new String[nAttrs];
+        Class[] domain = new Class[nAttrs];
+        boolean[] encoded = new boolean[nAttrs];
+        for (int j = 0; j < nAttrs; j++) {
+            attribute[j] = dis.readUTF();
+            domain[j] = TYPES[dis.readByte()];
+            encoded[j] = dis.readBoolean();
+        } // for
+        String[] key = new String[dis.readInt()];
+        for (int k = 0; k < key.length; k++) key[k] = dis.readUTF();
+
+        DbFile db = new DbFile(name, attribute, domain, key, columnar, encoded);
+        db.headerPages = hPages;
+        db.nPages = pages;
+        db.nTuples = tuples;
+        return db;
+    } // open
+
+    /************************************************************************************
+     * Read every data page of the file, appending the tuples to dest.
+     *
+     * @param ch   the channel of the file
+     * @param dest the list receiving the tuples
+     */
+    void readAll(FileChannel ch, List<Comparable[]> dest) throws IOException {
+        final int CHUNK = 256;                                   // pages per read
+        ByteBuffer buf = ByteBuffer.allocate(CHUNK * PAGE_SIZE);   // heap, so strings decode in place
+        ByteBuffer ovf = ByteBuffer.allocate(PAGE_SIZE);
+        Overflow reader = (first, len) -> readOverflow(first, len, p -> {
+            ovf.clear();
+            try {
+                while (ovf.hasRemaining()) {
+                    if (ch.read(ovf, pageOffset(p) + ovf.position()) < 0) throw new EOFException("DbFile: truncated");
+                } // while
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } // try
+            return ovf.flip();
+        }, p -> { });
+        for (int p = 0; p < nPages; p += CHUNK) {
+            int n = Math.min(CHUNK, nPages - p);
+            buf.clear().limit(n * PAGE_SIZE);
+            long pos = pageOffset(p);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, pos + buf.position()) < 0) throw new EOFException("DbFile: truncated");
+            } // while
+            for (int i = 0; i < n; i++) {
+                buf.limit((i + 1) * PAGE_SIZE).position(i * PAGE_SIZE);
+                decodePage(buf.slice(), dest, reader);
+            } // for
+        } // for
+    } // readAll
+
+    /************************************************************************************
+     * Return the number of tuples in a data page.
+     *
+     * @param page the page, positioned at its start
+     * @return the tuple count
+     */
+    static int pageCount(ByteBuffer page) {
+        return page.getInt(page.position());
+    } // pageCount
+
+    /************************************************************************************
+     * This interface reads a string stored in overflow pages.
+     */
+    interface Overflow {
+        /**
+         * Return the bytes of the string.
+         *
+         * @param first the data page number of its first overflow page
+         * @param len   its length in bytes
+         * @return the bytes of the string
+         */
+        byte[] read(int first, int len);
+    } // Overflow interface
+
+    /************************************************************************************
+     * Read a string of len bytes from the run of overflow pages starting at page first.
+     *
+     * @param first   the data page number of the first overflow page
+     * @param len     the length of the string in bytes
+     * @param page    returns data page p, positioned at its start
+     * @param release signals that data page p is no longer in use
+     * @return the bytes of the string
+     */
+    byte[] readOverflow(int first, int len, IntFunction<ByteBuffer> page, IntConsumer release) {
+        byte[] s = new byte[len];
+        for (int off = 0, p = first; off < len; off += OVERFLOW_BYTES, p++) {
+            ByteBuffer b = page.apply(p).duplicate();
+            b.position(b.position() + 4);
+            b.get(s, off, Math.min(OVERFLOW_BYTES, len - off));
+            release.accept(p);
+        } // for
+        return s;
+    } // readOverflow
+
+    /************************************************************************************
+     * Decode every tuple of a data page, appending them to dest.
+     *
+     * @param page the page, positioned at its start
+     * @param dest the list receiving the tuples
+     * @param ovf  the reader of strings stored in overflow pages
+     */
+    void decodePage(ByteBuffer page, List<Comparable[]> dest, Overflow ovf) {
+        ByteBuffer b = page.duplicate();
+        int nRows = b.getInt();
+        for (int i = 0; i < nRows; i++) dest.add(decodeTuple(b, ovf));
+    } // decodePage
+
+    /************************************************************************************
+     * Decode one tuple at the current position of the buffer, advancing past it.
+     *
+     * @param b   the buffer
+     * @param ovf the reader of strings stored in overflow pages
+     * @return the decoded tuple
+     */
+    Comparable[] decodeTuple(ByteBuffer b, Overflow ovf) {
+        Comparable[] tup = new Comparable[type.length];
+        for (int j = 0; j < type.length; j++) {
+            switch (type[j]) {
+            case 0: tup[j] = b.getInt(); break;
+            case 1: tup[j] = b.getLong(); break;
+            case 2: tup[j] = b.getShort(); break;
+            case 3: tup[j] = b.get(); break;
+            case 4: tup[j] = b.getDouble(); break;
+            case 5: tup[j] = b.getFloat(); break;
+            case 6: tup[j] = b.getChar(); break;
+            default:
+                int len = b.getInt();
+                if (len < 0) {
+                    tup[j] = new String(ovf.read(b.getInt(), -1 - len), StandardCharsets.UTF_8);
+                } else if (b.hasArray()) {                      // decode in place
+                    tup[j] = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+                    b.position(b.position() + len);
+                } else {
+                    byte[] s = new byte[len];
+                    b.get(s);
+                    tup[j] = new String(s, StandardCharsets.UTF_8);
+                } // if
+            } // switch
+        } // for
+        return tup;
+    } // decodeTuple
+
+} // DbFile class
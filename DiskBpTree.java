@@ -0,0 +1,570 @@
+/****************************************************************************************
+ * @file DiskBpTree.java
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/****************************************************************************************
+ * This class provides a disk-resident B+Tree mapping keys to row numbers.  Each node
+ * occupies one page of the tree's file and is read and written through a buffer pool,
+ * so only the pages in use need be in memory.  Keys are stored in the fixed-width,
+ * binary-comparable form of a KeyCodec, giving a fanout of several hundred for short
+ * keys.  Page 0 holds the tree's metadata (root, page count, size and key format), so
+ * a tree reopened after a restart is used as is, without being rebuilt.
+ * <p>
+ * A node page starts with a leaf flag, the number of keys and a link (the next leaf for
+ * a leaf, the leftmost child for an internal node), followed by its entries.  A leaf
+ * entry is a key and its row number; an internal entry is a key and the child holding
+ * the keys greater than or equal to it.
+ * <p>
+ * #usage DiskBpTree idx = DiskBpTree.create (pool, new File ("store/movie.idx"), codec)
+ */
+public class DiskBpTree extends AbstractMap<KeyType, Integer> implements Closeable {
+    /**
+     * The magic number identifying a tree file ("BPT1").
+     */
+    private static final int MAGIC = 0x42505431;
+
+    /**
+     * The size of a page (and node) in bytes.
+     */
+    private static final int PAGE_SIZE = BufferPool.PAGE_SIZE;
+
+    /**
+     * The size of the node header (leaf flag, key count, link).
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * The null link (page 0 is the metadata page, never a node).
+     */
+    private static final long NONE = 0;
+
+    /**
+     * The buffer pool caching the tree's pages.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The id of the tree's file within the pool.
+     */
+    private final int fileId;
+
+    /**
+     * The codec giving the stored form of the keys.
+     */
+    private final KeyCodec codec;
+
+    /**
+     * The width of a stored key and of a node entry in bytes.
+     */
+    private final int keyLen, entrySize;
+
+    /**
+     * The maximum number of keys per node.
+     */
+    private final int maxKeys;
+
+    /**
+     * The page number of the root node.
+     */
+    private long root;
+
+    /**
+     * The number of pages in the file (the next page to allocate).
+     */
+    private long nPages;
+
+    /**
+     * The number of entries in the tree.
+     */
+    private long size;
+
+    /**
+     * The key and new right node passed up by a split.
+     */
+    private byte[] upKey;
+    private long upPage;
+
+    /**
+     * The value replaced by the current put (null if the key was new).
+     */
+    private Integer oldValue;
+
+    /**
+     * Counter for the number of nodes accessed (for performance testing).
+     */
+    public long count = 0;
+
+    /************************************************************************************
+     * Construct a tree over the given file of the pool.
+     *
+     * @param _pool   the buffer pool
+     * @param _fileId the id of the tree's file within the pool
+     * @param _codec  the codec of the keys
+     */
+    private DiskBpTree(BufferPool _pool, int _fileId, KeyCodec _codec) {
+        pool = _pool;
+        fileId = _fileId;
+        codec = _codec;
+        keyLen = codec.width;
+        entrySize = keyLen + 8;
+        maxKeys = (PAGE_SIZE - HEADER) / entrySize;
+        if (maxKeys < 3) throw new IllegalArgumentException("DiskBpTree: keys too wide for a page");
+    } // constructor
+
+    /************************************************************************************
+     * Create an empty tree in the given file, replacing any previous contents.
+     *
+     * @param pool  the buffer pool caching the tree's pages
+     * @param file  the file to hold the tree
+     * @param codec the codec of the keys
+     * @return the new tree
+     */
+    public static DiskBpTree create(BufferPool pool, File file, KeyCodec codec) throws IOException {
+        if (file.exists()) {
+            pool.close(pool.open(file));                     // drop the old file's cached pages
+            if (!file.delete()) throw new IOException("DiskBpTree: unable to replace " + file);
+        } // if
+        DiskBpTree tree = new DiskBpTree(pool, pool.open(file, true), codec);
+        tree.nPages = 1;
+        tree.root = tree.allocate(true);
+        tree.size = 0;
+        tree.writeMeta();
+        return tree;
+    } // create
+
+    /************************************************************************************
+     * Open the tree stored in the given file.  The key format is read from the file.
+     *
+     * @param pool the buffer pool caching the tree's pages
+     * @param file the file holding the tree
+     * @return the tree
+     */
+    public static DiskBpTree open(BufferPool pool, File file) throws IOException {
+        if (!file.exists()) throw new IOException("DiskBpTree: no such file " + file);
+        int fileId = pool.open(file, true);
+        ByteBuffer m = pool.pin(fileId, 0);
+        try {
+            if (m.getInt(0) != MAGIC) throw new IOException("DiskBpTree: not a tree file " + file);
+            if (m.getInt(4) != PAGE_SIZE) throw new IOException("DiskBpTree: unsupported page size");
+            byte[] type = new byte[m.getInt(36)];
+            m.get(40, type);
+            DiskBpTree tree = new DiskBpTree(pool, fileId, new KeyCodec(type, m.getInt(32)));
+            tree.root = m.getLong(8);
+            tree.nPages = m.getLong(16);
+            tree.size = m.getLong(24);
+            return tree;
+        } finally {
+            pool.unpin(fileId, 0, false);
+        } // try
+    } // open
+
+    /************************************************************************************
+     * Return the codec giving the stored form of the keys.
+     */
+    public KeyCodec codec() {
+        return codec;
+    } // codec
+
+    /************************************************************************************
+     * Return the number of entries in the tree.
+     */
+    public int size() {
+        return (int) size;
+    } // size
+
+    /************************************************************************************
+     * Return the number of levels in the tree.
+     */
+    public int height() {
+        int h = 1;
+        for (long p = root; ; h++) {
+            ByteBuffer b = pin(p);
+            boolean leaf = isLeaf(b);
+            long c = b.getLong(8);
+            unpin(p, false);
+            if (leaf) return h;
+            p = c;
+        } // for
+    } // height
+
+    /************************************************************************************
+     * Return the row number associated with the given key.
+     *
+     * @param key the key used for look up
+     * @return the row number, or null if the key is absent (or could not be stored)
+     */
+    public Integer get(Object key) {
+        if (!(key instanceof KeyType)) return null;
+        byte[] k = new byte[codec.width];
+        if (!codec.tryEncode((KeyType) key, ByteBuffer.wrap(k))) return null;   // cannot be stored
+        for (long p = root; ; ) {
+            ByteBuffer b = pin(p);
+            int n = b.getInt(4);
+            int i = lowerBound(b, n, k);
+            if (isLeaf(b)) {
+                Integer v = (i < n && compare(k, b, keyOff(i)) == 0) ? (int) value(b, i) : null;
+                unpin(p, false);
+                return v;
+            } // if
+            long c = child(b, n, i, k);
+            unpin(p, false);
+            p = c;
+        } // for
+    } // get
+
+    /************************************************************************************
+     * Return whether the tree contains the given key.
+     *
+     * @param key the key to look for
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    } // containsKey
+
+    /************************************************************************************
+     * Put the key-value pair in the tree, splitting nodes that overflow.
+     *
+     * @param key   the key to insert
+     * @param value the row number to associate with the key
+     * @return the previous row number of the key, or null if it was absent
+     */
+    public Integer put(KeyType key, Integer value) {
+        byte[] k = codec.encode(key);
+        oldValue = null;
+        if (insert(root, k, value)) {
+            long r = allocate(false);
+            ByteBuffer b = pin(r);
+            b.putLong(8, root);
+            setEntry(b, 0, upKey, upPage);
+            b.putInt(4, 1);
+            unpin(r, true);
+            root = r;
+        } // if
+        if (oldValue == null) size++;
+        writeMeta();
+        return oldValue;
+    } // put
+
+    /************************************************************************************
+     * Return the row numbers of the keys in the range [fromKey, toKey), in key order,
+     * by descending once to the leaf holding fromKey and following the leaf chain.
+     * Bounds with strings too long for the codec are clamped (see KeyCodec.encodeBound).
+     *
+     * @param fromKey the lower bound (inclusive)
+     * @param toKey   the upper bound (exclusive)
+     * @return the row numbers of the keys in range
+     */
+    public List<Integer> rangeValues(KeyType fromKey, KeyType toKey) {
+        byte[] lo = codec.encodeBound(fromKey), hi = codec.encodeBound(toKey);
+        List<Integer> values = new ArrayList<>();
+
+        long p = root;
+        for (ByteBuffer b = pin(p); !isLeaf(b); b = pin(p)) {
+            int n = b.getInt(4);
+            long c = child(b, n, lowerBound(b, n, lo), lo);
+            unpin(p, false);
+            p = c;
+        } // for
+        unpin(p, false);
+
+        for (int i = -1; p != NONE; i = 0) {
+            ByteBuffer b = pin(p);
+            int n = b.getInt(4);
+            if (i < 0) i = lowerBound(b, n, lo);
+            for (; i < n; i++) {
+                if (compare(hi, b, keyOff(i)) <= 0) {
+                    unpin(p, false);
+                    return values;
+                } // if
+                values.add((int) value(b, i));
+            } // for
+            long next = b.getLong(8);
+            unpin(p, false);
+            p = next;
+        } // for
+        return values;
+    } // rangeValues
+
+    /************************************************************************************
+     * Return the entries of the tree in key order.  Iteration follows the leaf chain,
+     * copying out one leaf at a time.
+     */
+    public Set<Map.Entry<KeyType, Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<KeyType, Integer>>() {
+            public int size() {
+                return DiskBpTree.this.size();
+            } // size
+
+            public Iterator<Map.Entry<KeyType, Integer>> iterator() {
+                return new Iterator<Map.Entry<KeyType, Integer>>() {
+                    private long p = firstLeaf();
+                    private final List<Map.Entry<KeyType, Integer>> buf = new ArrayList<>();
+                    private int pos = 0;
+
+                    public boolean hasNext() {
+                        while (pos == buf.size() && p != NONE) {
+                            buf.clear();
+                            pos = 0;
+                            ByteBuffer b = pin(p);
+                            int n = b.getInt(4);
+                            for (int i = 0; i < n; i++) {
+                                b.position(keyOff(i));
+                                buf.add(new AbstractMap.SimpleImmutableEntry<>(codec.decode(b),
+                                        (int) value(b, i)));
+                            } // for
+                            long next = b.getLong(8);
+                            unpin(p, false);
+                            p = next;
+                        } // while
+                        return pos < buf.size();
+                    } // hasNext
+
+                    public Map.Entry<KeyType, Integer> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        return buf.get(pos++);
+                    } // next
+                };
+            } // iterator
+        };
+    } // entrySet
+
+    /************************************************************************************
+     * Write the metadata and every dirty page of the pool back to disk.
+     */
+    public void flush() throws IOException {
+        writeMeta();
+        pool.flush();
+    } // flush
+
+    /************************************************************************************
+     * Write the metadata and close the tree's file in the pool, which writes back and
+     * evicts its pages.  The tree must not be used afterwards.
+     */
+    public void close() throws IOException {
+        writeMeta();
+        pool.close(fileId);
+    } // close
+
+    //----------------------------------------------------------------------------------
+    // Node operations
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Insert the key-value pair into the subtree rooted at page p.  If the node splits,
+     * the separating key and the new right node are left in upKey and upPage.
+     *
+     * @param p the page of the subtree's root
+     * @param k the stored form of the key
+     * @param v the value
+     * @return whether node p split
+     */
+    private boolean insert(long p, byte[] k, long v) {
+        ByteBuffer b = pin(p);
+        int n = b.getInt(4);
+        int i = lowerBound(b, n, k);
+
+        if (isLeaf(b)) {
+            if (i < n && compare(k, b, keyOff(i)) == 0) {
+                oldValue = (int) value(b, i);
+                b.putLong(keyOff(i) + keyLen, v);
+                unpin(p, true);
+                return false;
+            } // if
+            boolean split = insertEntry(b, n, i, k, v, true);
+            unpin(p, true);
+            return split;
+        } // if
+
+        int c = (i < n && compare(k, b, keyOff(i)) == 0) ? i + 1 : i;
+        long child = (c == 0) ? b.getLong(8) : value(b, c - 1);
+        unpin(p, false);
+        if (!insert(child, k, v)) return false;
+
+        b = pin(p);
+        boolean split = insertEntry(b, b.getInt(4), c, upKey, upPage, false);
+        unpin(p, true);
+        return split;
+    } // insert
+
+    /************************************************************************************
+     * Insert an entry at position i of the node, splitting the node if it is full.  A
+     * leaf split keeps the lower half and copies the first key of the upper half up; an
+     * internal split moves its middle key up, its child becoming the new node's link.
+     *
+     * @param b    the node's page
+     * @param n    the number of keys in the node
+     * @param i    the position of the new entry
+     * @param k    the stored form of the key
+     * @param v    the value or right child
+     * @param leaf whether the node is a leaf
+     * @return whether the node split (upKey and upPage are then set)
+     */
+    private boolean insertEntry(ByteBuffer b, int n, int i, byte[] k, long v, boolean leaf) {
+        if (n < maxKeys) {
+            byte[] tail = new byte[(n - i) * entrySize];
+            b.get(keyOff(i), tail);
+            b.put(keyOff(i + 1), tail);
+            setEntry(b, i, k, v);
+            b.putInt(4, n + 1);
+            return false;
+        } // if
+
+        //gather the n + 1 entries in order, then divide them between the two nodes
+        ByteBuffer all = ByteBuffer.allocate((n + 1) * entrySize);
+        byte[] head = new byte[i * entrySize], tail = new byte[(n - i) * entrySize];
+        b.get(HEADER, head);
+        b.get(keyOff(i), tail);
+        all.put(head).put(k).putLong(v).put(tail);
+
+        int h = (n + 1) / 2;
+        long r = allocate(leaf);
+        ByteBuffer rb = pin(r);
+        byte[] mid = new byte[keyLen];
+        all.get(h * entrySize, mid);
+
+        b.put(HEADER, all.array(), 0, h * entrySize);
+        b.putInt(4, h);
+        int from = leaf ? h : h + 1;
+        rb.put(HEADER, all.array(), from * entrySize, (n + 1 - from) * entrySize);
+        rb.putInt(4, n + 1 - from);
+        if (leaf) {
+            rb.putLong(8, b.getLong(8));
+            b.putLong(8, r);
+        } else {
+            rb.putLong(8, all.getLong(h * entrySize + keyLen));
+        } // if
+        unpin(r, true);
+
+        upKey = mid;
+        upPage = r;
+        return true;
+    } // insertEntry
+
+    /************************************************************************************
+     * Allocate and format a new node page.
+     *
+     * @param leaf whether the node is a leaf
+     * @return the page number
+     */
+    private long allocate(boolean leaf) {
+        long p = nPages++;
+        ByteBuffer b = pin(p);
+        b.put(0, (byte) (leaf ? 1 : 0));
+        b.putInt(4, 0);
+        b.putLong(8, NONE);
+        unpin(p, true);
+        return p;
+    } // allocate
+
+    /************************************************************************************
+     * Return the page of the leftmost leaf.
+     */
+    private long firstLeaf() {
+        long p = root;
+        for (ByteBuffer b = pin(p); !isLeaf(b); b = pin(p)) {
+            long c = b.getLong(8);
+            unpin(p, false);
+            p = c;
+        } // for
+        unpin(p, false);
+        return p;
+    } // firstLeaf
+
+    /************************************************************************************
+     * Return the position of the first key of the node not less than k (binary search).
+     *
+     * @param b the node's page
+     * @param n the number of keys in the node
+     * @param k the stored form of the key
+     * @return the position, n if every key is less than k
+     */
+    private int lowerBound(ByteBuffer b, int n, byte[] k) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(k, b, keyOff(mid)) > 0) lo = mid + 1;
+            else hi = mid;
+        } // while
+        count++;
+        return lo;
+    } // lowerBound
+
+    /************************************************************************************
+     * Return the child of an internal node to descend into for key k.
+     *
+     * @param b the node's page
+     * @param n the number of keys in the node
+     * @param i the lower bound of k in the node
+     * @param k the stored form of the key
+     * @return the page of the child
+     */
+    private long child(ByteBuffer b, int n, int i, byte[] k) {
+        if (i < n && compare(k, b, keyOff(i)) == 0) i++;
+        return (i == 0) ? b.getLong(8) : value(b, i - 1);
+    } // child
+
+    /************************************************************************************
+     * Compare the stored key k with the key at offset off of the page (unsigned
+     * lexicographic order).
+     */
+    private int compare(byte[] k, ByteBuffer b, int off) {
+        for (int j = 0; j < keyLen; j++) {
+            int cmp = (k[j] & 0xff) - (b.get(off + j) & 0xff);
+            if (cmp != 0) return cmp;
+        } // for
+        return 0;
+    } // compare
+
+    private int keyOff(int i) {
+        return HEADER + i * entrySize;
+    } // keyOff
+
+    private long value(ByteBuffer b, int i) {
+        return b.getLong(keyOff(i) + keyLen);
+    } // value
+
+    private void setEntry(ByteBuffer b, int i, byte[] k, long v) {
+        b.put(keyOff(i), k);
+        b.putLong(keyOff(i) + keyLen, v);
+    } // setEntry
+
+    private static boolean isLeaf(ByteBuffer b) {
+        return b.get(0) == 1;
+    } // isLeaf
+
+    /************************************************************************************
+     * Record the root, page count, size and key format in the metadata page.
+     */
+    private void writeMeta() {
+        ByteBuffer m = pin(0);
+        m.putInt(0, MAGIC);
+        m.putInt(4, PAGE_SIZE);
+        m.putLong(8, root);
+        m.putLong(16, nPages);
+        m.putLong(24, size);
+        m.putInt(32, codec.strWidth);
+        m.putInt(36, codec.type.length);
+        m.put(40, codec.type);
+        unpin(0, true);
+    } // writeMeta
+
+    private ByteBuffer pin(long p) {
+        try {
+            return pool.pin(fileId, p);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("DiskBpTree: unable to read page " + p, ex);
+        } // try
+    } // pin
+
+    private void unpin(long p, boolean modified) {
+        pool.unpin(fileId, p, modified);
+    } // unpin
+
+} // DiskBpTree class
@@ -5,14 +5,17 @@
  */
 
 import java.io.*;
-import java.lang.reflect.Array;
 import static java.lang.System.out;
 import java.util.*;
 
 /************************************************************************************
  * This class provides hash maps that use the Extendable Hashing algorithm.
  * Buckets are allocated and stored in a hash table and are referenced using
- * directory dir.
+ * directory dir.  The directory has 2^D slots (D is the global depth) and a key
+ * goes to the slot given by the low D bits of its hash.  Each bucket has a local
+ * depth d <= D and is referenced by the 2^(D-d) slots agreeing on the low d bits.
+ * A full bucket is split on bit d, doubling the directory first if d = D, and
+ * every slot referencing it is repointed.
  */
 /**
  * @author esc
@@ -23,7 +26,7 @@ import java.util.*;
 public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 		Serializable, Cloneable, Map<K, V> {
 	/**
-	 * The number of slots (for key-value pairs) per bucket.
+	 * The default number of slots (for key-value pairs) per bucket.
 	 */
 	private static final int SLOTS = 4;
 
@@ -37,21 +40,29 @@ public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 	 */
 	private final Class<V> classV;
 
+	/**
+	 * The number of slots per bucket.
+	 */
+	private final int slots;
+
 	/********************************************************************************
-	 * This inner class defines buckets that are stored in the hash table.
+	 * This inner class defines buckets that are stored in the hash table.  The hash
+	 * of each key is kept so that lookups compare hashes first and splits need not
+	 * rehash.
 	 */
-	private class Bucket {
+	private static class Bucket implements Serializable {
 		int nKeys;
-		int nSplit;
-		K[] key;
-		V[] value;
+		int depth;
+		int[] hash;
+		Object[] key;
+		Object[] value;
 
-		@SuppressWarnings("unchecked")
-		Bucket() {
+		Bucket(int _depth, int slots) {
 			nKeys = 0;
-			nSplit = 0;
-			key = (K[]) Array.newInstance(classK, SLOTS);
-			value = (V[]) Array.newInstance(classV, SLOTS);
+			depth = _depth;
+			hash = new int[slots];
+			key = new Object[slots];
+			value = new Object[slots];
 		} // constructor
 	} // Bucket inner class
 
@@ -64,175 +75,205 @@ public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 	 * The directory providing access paths to the buckets (buckets in logical
 	 * oder)
 	 */
-	private final List<Bucket> dir;
+	private Bucket[] dir;
 
 	/**
-	 * The modulus for hashing (= 2^D) where D is the global depth
+	 * The global depth D (the directory has 2^D slots)
 	 */
-	private int mod;
+	private int depth;
 
 	/**
-	 * The number of buckets
+	 * The number of key-value pairs stored
 	 */
-	private int nBuckets;
+	private int nEntries = 0;
 
 	/**
 	 * Counter for the number buckets accessed (for performance testing).
 	 */
 	private int count = 0;
-	/**
-	 * the initial modulus value
-	 */
-	private int intiMod;
+
 	/********************************************************************************
 	 * Construct a hash table that uses Extendable Hashing.
-	 * 
+	 *
 	 * @param classK
 	 *            the class for keys (K)
 	 * @param classV
 	 *            the class for keys (V)
 	 * @param initSize
-	 *            the initial number of buckets (a power of 2, e.g., 4)
+	 *            the initial number of buckets (rounded up to a power of 2)
 	 */
 	public ExtHashMap(Class<K> _classK, Class<V> _classV, int initSize) {
+		this(_classK, _classV, initSize, SLOTS);
+	} // constructor
+
+	/********************************************************************************
+	 * Construct a hash table that uses Extendable Hashing with the given bucket
+	 * capacity.
+	 *
+	 * @param classK
+	 *            the class for keys (K)
+	 * @param classV
+	 *            the class for keys (V)
+	 * @param initSize
+	 *            the initial number of buckets (rounded up to a power of 2)
+	 * @param _slots
+	 *            the number of key-value pairs per bucket
+	 */
+	public ExtHashMap(Class<K> _classK, Class<V> _classV, int initSize, int _slots) {
+		if (_slots < 1) throw new IllegalArgumentException("ExtHashMap: slots must be positive");
 		classK = _classK;
 		classV = _classV;
+		slots = _slots;
 		hTable = new ArrayList<>(); // for bucket storage
-		dir = new ArrayList<>(); // for bucket access
-		nBuckets = initSize;
-		mod = (int) Math.pow(2, Math.ceil(Math.log(initSize) / Math.log(2)));
-		intiMod = (int) Math.pow(2,Math.ceil(Math.log(initSize) / Math.log(2)));				
-		for (int i = 0; i < mod; i++) {
-			dir.add(new Bucket());
-		}
-		for (int i = 0; i < nBuckets; i++) { // initialize empty buckets
-			hTable.add(new Bucket());
-			dir.set(i, hTable.get(i));
-		}
-
+		depth = 0;
+		while ((1 << depth) < initSize) depth++;
+		dir = new Bucket[1 << depth]; // for bucket access
+		for (int i = 0; i < dir.length; i++) { // initialize empty buckets
+			dir[i] = new Bucket(depth, slots);
+			hTable.add(dir[i]);
+		} // for
 	} // constructor
 
 	/********************************************************************************
-	 * Return a set containing all the entries as pairs of keys and values.
-	 * 
+	 * Return a set containing all the entries as pairs of keys and values.  The view
+	 * iterates over the buckets of the hash table, so each entry is seen once.
+	 *
 	 * @return the set view of the map
 	 */
 	public Set<Map.Entry<K, V>> entrySet() {
-		Set<Map.Entry<K, V>> enSet = new HashSet<>();
-		// T O B E I M P L E M E N T E D
-		// go through hash table
-		for (int i = 0; i < dir.size(); i++) {
-			Bucket b = dir.get(i);
-			// go through key in each bucket
-			for (int j = 0; j < b.nKeys; j++) {
-				enSet.add(new AbstractMap.SimpleEntry<>(b.key[j], b.value[j]));
-			}// for
-		}// for
-		return enSet;
+		return new AbstractSet<Map.Entry<K, V>>() {
+			public int size() {
+				return nEntries;
+			} // size
+
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new Iterator<Map.Entry<K, V>>() {
+					private int b = 0, j = 0;
+
+					public boolean hasNext() {
+						while (b < hTable.size() && j >= hTable.get(b).nKeys) {
+							b++;
+							j = 0;
+						} // while
+						return b < hTable.size();
+					} // hasNext
+
+					@SuppressWarnings("unchecked")
+					public Map.Entry<K, V> next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						Bucket bk = hTable.get(b);
+						Map.Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<>(
+								(K) bk.key[j], (V) bk.value[j]);
+						j++;
+						return e;
+					} // next
+				};
+			} // iterator
+		};
 	} // entrySet
 
 	/********************************************************************************
 	 * Given the key, look up the value in the hash table.
-	 * 
+	 *
 	 * @param key
 	 *            the key used for look up
 	 * @return the value associated with the key
 	 */
+	@SuppressWarnings("unchecked")
 	public V get(Object key) {
-		setCount(getCount() + 1);
-		int i = h(key);
-		Bucket b = dir.get(i);
-		// T O B E I M P L E M E N T E D
-		// go through the bucket to find the value
-		for (int j = 0; j < b.nKeys; j++) {
-			if (key.equals(b.key[j])) {
-				return b.value[j];
-			}
-		}// for
-		return null;
+		count++;
+		int hk = hash(key);
+		Bucket b = dir[hk & (dir.length - 1)];
+		int j = find(b, hk, key);
+		return (j < 0) ? null : (V) b.value[j];
 	} // get
 
 	/********************************************************************************
-	 * Put the key-value pair in the hash table.
-	 * 
+	 * Put the key-value pair in the hash table.  While the key's bucket is full it
+	 * is split, so a put may split more than once if the bucket's keys agree on the
+	 * next hash bit.
+	 *
 	 * @param key
 	 *            the key to insert
 	 * @param value
 	 *            the value to insert
-	 * @return null (not the previous value)
+	 * @return the previous value of the key, or null if it was absent
 	 */
+	@SuppressWarnings("unchecked")
 	public V put(K key, V value) {
-		int i = h(key);
-		Bucket b = dir.get(i);
-		// T O B E I M P L E M E N T E D
-
-		// check if the bucket is overflow
-		if (b.nKeys < SLOTS) {
-			b.key[b.nKeys] = key;
-			b.value[b.nKeys] = value;
-			b.nKeys++;
-		} else {
-			// split bucket b
-			Bucket b1 = new Bucket();
-			Bucket b2 = new Bucket();
-			// put new thing in b2
-			b2.key[b2.nKeys] = key;
-			b2.value[b2.nKeys] = value;
-			b2.nKeys++;
-			// check if it is supposed to double directory
-			if (b.nSplit >= (int) ((Math.log(mod) / Math.log(2)) - (Math.log(intiMod) / Math.log(2)))) {					
-				mod = mod * 2;
-				// doubling directory
-				for (int j = mod / 2; j < mod; j++) {
-					dir.add(new Bucket());
-					dir.set(j, dir.get(j % (mod / 2)));
-				}// for
-			}// if
-			// for loop
-			// rehash where to rearrange value
-			for (int k = 0; k < b.nKeys; k++) {
-				i = h(b.key[k]);
-				// see whether the values in old buckets should be moved to new
-				// buckets.
-				// if so, move and clear; if not, keep.
-				if (h(key) == i) {
-					// move to b2
-					b2.key[b2.nKeys] = b.key[k];
-					b2.value[b2.nKeys] = b.value[k];
-					b2.nKeys++;
-				} else {
-					// move to b1
-					b1.key[b1.nKeys] = b.key[k];
-					b1.value[b1.nKeys] = b.value[k];
-					b1.nKeys++;
-				}// ifelse
-			}// for
-			// update bucket level
-			b1.nSplit++;
-			b2.nSplit++;
-			// update hTable
-			hTable.remove(b);
-			hTable.add(b1);
-			hTable.add(b2);
-			// update the number of buckets
-			nBuckets++;
-			// update directory
-			dir.set(h(b1.key[0]), b1);
-			dir.set(h(key), b2);
-		}// ifelse
+		int hk = hash(key);
+		Bucket b = dir[hk & (dir.length - 1)];
+		int j = find(b, hk, key);
+		if (j >= 0) {
+			V old = (V) b.value[j];
+			b.value[j] = value;
+			return old;
+		} // if
 
+		while (b.nKeys == b.key.length) {
+			if (sameHash(b)) {
+				grow(b);
+				break;
+			} // if
+			split(b, hk);
+			b = dir[hk & (dir.length - 1)];
+		} // while
+
+		b.hash[b.nKeys] = hk;
+		b.key[b.nKeys] = key;
+		b.value[b.nKeys] = value;
+		b.nKeys++;
+		nEntries++;
 		return null;
 	} // put
 
 	/********************************************************************************
-	 * Return the size (SLOTS * number of buckets) of the hash table.
-	 * 
+	 * Remove the key from the hash table (buckets are not merged).
+	 *
+	 * @param key
+	 *            the key to remove
+	 * @return the value the key had, or null if it was absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		int hk = hash(key);
+		Bucket b = dir[hk & (dir.length - 1)];
+		int j = find(b, hk, key);
+		if (j < 0) return null;
+		V old = (V) b.value[j];
+		int last = --b.nKeys;
+		b.hash[j] = b.hash[last];
+		b.key[j] = b.key[last];
+		b.value[j] = b.value[last];
+		b.key[last] = null;
+		b.value[last] = null;
+		nEntries--;
+		return old;
+	} // remove
+
+	/********************************************************************************
+	 * Return the size (number of key-value pairs) of the hash table.
+	 *
 	 * @return the size of the hash table
 	 */
 	public int size() {
-		return SLOTS * nBuckets;
+		return nEntries;
 	} // size
 
+	/********************************************************************************
+	 * Return the number of buckets in the hash table.
+	 */
+	public int bucketCount() {
+		return hTable.size();
+	} // bucketCount
+
+	/********************************************************************************
+	 * Return the global depth (the directory has 2^depth slots).
+	 */
+	public int globalDepth() {
+		return depth;
+	} // globalDepth
+
 	/********************************************************************************
 	 * Print the hash table.
 	 */
@@ -240,12 +281,11 @@ public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 		out.println("Hash Table (Extendable Hashing)");
 		out.println("-------------------------------------------");
 
-		// T O B E I M P L E M E N T E D
-		for (int i = 0; i < dir.size(); i++) {
-			out.print(i + ":\t" + "[");
+		for (int i = 0; i < dir.length; i++) {
+			Bucket b = dir[i];
+			out.print(i + ":\t" + "d=" + b.depth + " [");
 			// check if it is the first value of bucket
 			boolean isFirstValue = true;
-			Bucket b = dir.get(i);
 			for (int j = 0; j < b.nKeys; j++) {
 				if (!isFirstValue)
 					out.print("-->");// if
@@ -260,19 +300,94 @@ public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 	} // print
 
 	/********************************************************************************
-	 * Hash the key using the hash function.
-	 * 
+	 * Split bucket b on hash bit d (its local depth): the keys with that bit set
+	 * move to a new bucket, and every directory slot referencing b whose index has
+	 * that bit set is repointed to the new bucket.  The directory is doubled first
+	 * if d equals the global depth.
+	 *
+	 * @param b
+	 *            the bucket to split
+	 * @param hk
+	 *            the hash of a key that belongs in b (its low d bits are the
+	 *            low bits of every slot referencing b)
+	 */
+	private void split(Bucket b, int hk) {
+		if (b.depth == depth) {
+			dir = Arrays.copyOf(dir, 2 * dir.length);
+			System.arraycopy(dir, 0, dir, dir.length / 2, dir.length / 2);
+			depth++;
+		} // if
+
+		int bit = 1 << b.depth;
+		Bucket nb = new Bucket(b.depth + 1, b.key.length);
+		b.depth++;
+		int k = 0;
+		for (int j = 0; j < b.nKeys; j++) {
+			if ((b.hash[j] & bit) != 0) {
+				nb.hash[nb.nKeys] = b.hash[j];
+				nb.key[nb.nKeys] = b.key[j];
+				nb.value[nb.nKeys++] = b.value[j];
+			} else {
+				b.hash[k] = b.hash[j];
+				b.key[k] = b.key[j];
+				b.value[k++] = b.value[j];
+			} // if
+		} // for
+		Arrays.fill(b.key, k, b.nKeys, null);
+		Arrays.fill(b.value, k, b.nKeys, null);
+		b.nKeys = k;
+		hTable.add(nb);
+
+		// repoint every slot that referenced b and has the new bit set
+		for (int i = (hk & (bit - 1)) | bit; i < dir.length; i += 2 * bit) dir[i] = nb;
+	} // split
+
+	/********************************************************************************
+	 * Return whether all keys in bucket b have the same hash, so no split could
+	 * separate them.
+	 */
+	private static boolean sameHash(Bucket b) {
+		for (int j = 1; j < b.nKeys; j++) {
+			if (b.hash[j] != b.hash[0]) return false;
+		} // for
+		return true;
+	} // sameHash
+
+	/********************************************************************************
+	 * Double the capacity of bucket b, for keys whose hashes cannot be separated.
+	 */
+	private void grow(Bucket b) {
+		b.hash = Arrays.copyOf(b.hash, 2 * b.key.length);
+		b.key = Arrays.copyOf(b.key, 2 * b.key.length);
+		b.value = Arrays.copyOf(b.value, 2 * b.value.length);
+	} // grow
+
+	/********************************************************************************
+	 * Return the position of the key in bucket b, or -1 if it is absent.
+	 */
+	private int find(Bucket b, int hk, Object key) {
+		for (int j = 0; j < b.nKeys; j++) {
+			if (b.hash[j] == hk && key.equals(b.key[j])) return j;
+		} // for
+		return -1;
+	} // find
+
+	/********************************************************************************
+	 * Hash the key using the hash function.  The high bits are folded into the low
+	 * bits, which select the directory slot, since masking ignores the high bits.
+	 *
 	 * @param key
 	 *            the key to hash
-	 * @return the location of the directory entry referencing the bucket
+	 * @return the hash (its low global-depth bits locate the directory slot)
 	 */
-	private int h(Object key) {
-		return key.hashCode() % mod;
-	} // h
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	} // hash
 
 	/********************************************************************************
 	 * The main method used for testing.
-	 * 
+	 *
 	 * @param the
 	 *            command-line arguments (args [0] gives number of keys to
 	 *            insert)
@@ -305,4 +420,3 @@ public class ExtHashMap<K, V> extends AbstractMap<K, V> implements
 	}
 
 } // ExtHashMap class
-
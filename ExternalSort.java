@@ -0,0 +1,358 @@
+/****************************************************************************************
+ * @file ExternalSort.java
+ */
+
+import java.io.*;
+import java.util.*;
+
+/****************************************************************************************
+ * This class sorts tuples on a list of columns within a memory budget (a maximum number
+ * of tuples held in memory).  Input that fits in the budget is sorted in memory.  Larger
+ * input is cut into sorted runs that are spilled to files in the storage directory and
+ * then merged using a priority queue holding one tuple per run.  At most FAN_IN runs are
+ * open at once: while there are more, groups of FAN_IN runs are merged into longer runs
+ * first, so the number of open files stays bounded however small the budget is
+ * relative to the input.  The sorted tuples are delivered through the Iterator
+ * interface.
+ */
+class ExternalSort
+        implements Iterator<Comparable[]>, Closeable {
+    /**
+     * Number of tuples written between stream resets (bounds the stream's handle table).
+     */
+    private static final int RESET = 1024;
+
+    /**
+     * The largest number of runs merged (and so open) at once.
+     */
+    static final int FAN_IN = 64;
+
+    /**
+     * The order on tuples given by the sort columns.
+     */
+    private final Comparator<Comparable[]> order;
+
+    /**
+     * The spilled run files (empty when sorting in memory).
+     */
+    private final List<File> runs = new ArrayList<>();
+
+    /**
+     * Iterator over the sorted tuples when the input fit in memory.
+     */
+    private Iterator<Comparable[]> memIt;
+
+    /**
+     * Heap of open runs ordered by their current tuple (external case).
+     */
+    private PriorityQueue<Run> heap;
+
+    /********************************************************************************
+     * This inner class is a cursor over one spilled run.
+     */
+    private class Run {
+        ObjectInputStream in;
+        Comparable[] tup;
+
+        Run(File file) throws IOException {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            advance();
+        } // constructor
+
+        void advance() throws IOException {
+            try {
+                tup = (Comparable[]) in.readObject();
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(ex);
+            } // try
+            if (tup == null) in.close();
+        } // advance
+    } // Run inner class
+
+    /********************************************************************************
+     * This class buffers a list of tuples that can be scanned any number of times.
+     * Up to budget tuples are kept in memory; the rest are spilled to a run file in
+     * the given directory and reread on each scan.
+     */
+    static class Buffer
+            implements Iterable<Comparable[]>, Closeable {
+        private final int budget;
+        private final File dir;
+        private final List<Comparable[]> mem = new ArrayList<>();
+        private File file;
+        private ObjectOutputStream oos;
+        private int nSpilled = 0;
+
+        /**
+         * Construct an empty buffer.
+         *
+         * @param _budget the maximum number of tuples to hold in memory (at least 1)
+         * @param _dir    the directory to spill into
+         */
+        Buffer(int _budget, File _dir) {
+            budget = Math.max(1, _budget);
+            dir = _dir;
+        } // constructor
+
+        /**
+         * Append a tuple, spilling it if the memory budget is used up.
+         *
+         * @param tup the tuple to append
+         */
+        void add(Comparable[] tup) {
+            if (mem.size() < budget) {
+                mem.add(tup);
+                return;
+            } // if
+            try {
+                if (oos == null) {
+                    dir.mkdirs();
+                    if (file == null) {
+                        file = File.createTempFile("group", ".run", dir);
+                        file.deleteOnExit();
+                    } // if
+                    oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                } // if
+                oos.writeObject(tup);
+                if (++nSpilled % RESET == 0) oos.reset();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("ExternalSort: unable to spill group", ex);
+            } // try
+        } // add
+
+        /**
+         * Return an iterator over the tuples in the order added: those in memory, then
+         * those read back from the run file.
+         */
+        public Iterator<Comparable[]> iterator() {
+            if (nSpilled == 0) return mem.iterator();
+            try {
+                if (oos != null) {
+                    oos.close();
+                    oos = null;
+                } // if
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                return new Iterator<Comparable[]>() {
+                    private final Iterator<Comparable[]> memIt = mem.iterator();
+                    private int nRead = 0;
+
+                    public boolean hasNext() {
+                        return memIt.hasNext() || nRead < nSpilled;
+                    } // hasNext
+
+                    public Comparable[] next() {
+                        if (memIt.hasNext()) return memIt.next();
+                        if (nRead >= nSpilled) throw new NoSuchElementException();
+                        try {
+                            Comparable[] tup = (Comparable[]) in.readObject();
+                            if (++nRead == nSpilled) in.close();
+                            return tup;
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException("ExternalSort: unable to read group", ex);
+                        } catch (ClassNotFoundException ex) {
+                            throw new UncheckedIOException("ExternalSort: unable to read group", new IOException(ex));
+                        } // try
+                    } // next
+                };
+            } catch (IOException ex) {
+                throw new UncheckedIOException("ExternalSort: unable to read group", ex);
+            } // try
+        } // iterator
+
+        /**
+         * Empty the buffer so it can collect a new list (the run file is reused).
+         */
+        void clear() {
+            mem.clear();
+            nSpilled = 0;
+            try {
+                if (oos != null) oos.close();
+            } catch (IOException ex) {
+                // the file is rewritten or deleted regardless
+            } // try
+            oos = null;
+        } // clear
+
+        /**
+         * Empty the buffer and delete its run file.
+         */
+        public void close() {
+            clear();
+            if (file != null) file.delete();
+            file = null;
+        } // close
+    } // Buffer class
+
+    /************************************************************************************
+     * Sort the input tuples on the given columns.
+     *
+     * @param input  the tuples to sort (left unmodified)
+     * @param cols   the positions of the sort columns
+     * @param budget the maximum number of tuples to hold in memory (at least 1)
+     * @param dir    the directory to spill sorted runs into
+     */
+    ExternalSort(Collection<Comparable[]> input, int[] cols, int budget, File dir) {
+        order = comparator(cols);
+        budget = Math.max(1, budget);
+
+        if (input.size() <= budget) {
+            List<Comparable[]> buf = new ArrayList<>(input);
+            buf.sort(order);
+            memIt = buf.iterator();
+            return;
+        } // if
+
+        try {
+            dir.mkdirs();
+            List<Comparable[]> buf = new ArrayList<>(budget);
+            for (Comparable[] tup : input) {
+                buf.add(tup);
+                if (buf.size() == budget) spill(buf, dir);
+            } // for
+            if (!buf.isEmpty()) spill(buf, dir);
+
+            //intermediate passes: merge groups of FAN_IN runs until FAN_IN runs remain
+            while (runs.size() > FAN_IN) {
+                merge(new ArrayList<>(runs.subList(0, FAN_IN)), dir);
+                runs.subList(0, FAN_IN).clear();
+            } // while
+
+            heap = openRuns(runs);
+        } catch (IOException ex) {
+            close();
+            throw new UncheckedIOException("ExternalSort: unable to spill runs", ex);
+        } // try
+    } // constructor
+
+    /************************************************************************************
+     * Build the comparator ordering tuples on the given columns (in column order).
+     *
+     * @param cols the positions of the sort columns
+     * @return the comparator
+     */
+    @SuppressWarnings("unchecked")
+    static Comparator<Comparable[]> comparator(int[] cols) {
+        return (t, u) -> {
+            for (int c : cols) {
+                int cmp = t[c].compareTo(u[c]);
+                if (cmp != 0) return cmp;
+            } // for
+            return 0;
+        };
+    } // comparator
+
+    /************************************************************************************
+     * Sort the buffered tuples and write them as a new run, then clear the buffer.
+     *
+     * @param buf the buffered tuples
+     * @param dir the directory for run files
+     */
+    private void spill(List<Comparable[]> buf, File dir) throws IOException {
+        buf.sort(order);
+        File file = File.createTempFile("sort", ".run", dir);
+        file.deleteOnExit();
+        runs.add(file);
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; i < buf.size(); i++) {
+                oos.writeObject(buf.get(i));
+                if (i % RESET == RESET - 1) oos.reset();
+            } // for
+            oos.writeObject(null);
+        } // try
+        buf.clear();
+    } // spill
+
+    /************************************************************************************
+     * Open the given runs, returning a heap of those not empty ordered by their first
+     * tuple.
+     *
+     * @param files the run files
+     * @return the heap of open runs
+     */
+    private PriorityQueue<Run> openRuns(List<File> files) throws IOException {
+        PriorityQueue<Run> h = new PriorityQueue<>(Math.max(1, files.size()), (a, b) -> order.compare(a.tup, b.tup));
+        try {
+            for (File file : files) {
+                Run run = new Run(file);
+                if (run.tup != null) h.add(run);
+            } // for
+        } catch (IOException ex) {
+            for (Run run : h) run.in.close();
+            throw ex;
+        } // try
+        return h;
+    } // openRuns
+
+    /************************************************************************************
+     * Merge the given runs into a new run appended to the list of runs, deleting their
+     * files (the caller removes them from the list).
+     *
+     * @param group the run files to merge
+     * @param dir   the directory for run files
+     */
+    private void merge(List<File> group, File dir) throws IOException {
+        File file = File.createTempFile("sort", ".run", dir);
+        file.deleteOnExit();
+        runs.add(file);
+        PriorityQueue<Run> h = openRuns(group);
+        try (ObjectOutputStream oos = new ObjectOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i = 0; !h.isEmpty(); i++) {
+                Run run = h.poll();
+                oos.writeObject(run.tup);
+                if (i % RESET == RESET - 1) oos.reset();
+                run.advance();
+                if (run.tup != null) h.add(run);
+            } // for
+            oos.writeObject(null);
+        } finally {
+            for (Run run : h) run.in.close();
+        } // try
+        for (File f : group) f.delete();
+    } // merge
+
+    /************************************************************************************
+     * Return whether there are more sorted tuples.
+     */
+    public boolean hasNext() {
+        return (memIt != null) ? memIt.hasNext() : !heap.isEmpty();
+    } // hasNext
+
+    /************************************************************************************
+     * Return the next tuple in sorted order.
+     */
+    public Comparable[] next() {
+        if (memIt != null) return memIt.next();
+        if (heap.isEmpty()) throw new NoSuchElementException();
+
+        Run run = heap.poll();
+        Comparable[] tup = run.tup;
+        try {
+            run.advance();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("ExternalSort: unable to read run", ex);
+        } // try
+        if (run.tup != null) heap.add(run);
+        return tup;
+    } // next
+
+    /************************************************************************************
+     * Close any open runs and delete the run files.
+     */
+    public void close() {
+        if (heap != null) {
+            for (Run run : heap) {
+                try {
+                    run.in.close();
+                } catch (IOException ex) {
+                    // the run file is deleted below regardless
+                } // try
+            } // for
+            heap.clear();
+        } // if
+        for (File file : runs) file.delete();
+        runs.clear();
+    } // close
+
+} // ExternalSort class
@@ -0,0 +1,370 @@
+/****************************************************************************************
+ * @file IndexBenchmark.java
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.lang.System.out;
+
+/****************************************************************************************
+ * This class benchmarks the index structures.  Each benchmark inserts n distinct keys in
+ * random order, looks every key up again and reports the elapsed times together with
+ * the structure's own counters.
+ * <p>
+ * #usage java IndexBenchmark [nKeys]
+ */
+public class IndexBenchmark {
+    /**
+     * The fanouts compared by the B+Tree benchmark.
+     */
+    private static final int[] ORDERS = {5, 16, 64, 128, 256, 512};
+
+    /**
+     * The bucket capacities compared by the extendible hashing benchmark.
+     */
+    private static final int[] SLOTS = {4, 16, 64, 256};
+
+    /**
+     * The load factors compared by the linear hashing benchmark.
+     */
+    private static final double[] LOAD_FACTORS = {0.5, 0.75, 1.0, 2.0};
+
+    /************************************************************************************
+     * Return the keys 0 until n in a random (but repeatable) order.
+     *
+     * @param n the number of keys
+     * @return the shuffled keys
+     */
+    static int[] shuffledKeys(int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) keys[i] = i;
+        Random rng = new Random(42);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rng.nextInt(i + 1);
+            int t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        } // for
+        return keys;
+    } // shuffledKeys
+
+    /************************************************************************************
+     * Compare B+Trees of different fanouts: height, average number of nodes accessed
+     * per lookup (the tree's count) and insert/lookup times.
+     *
+     * @param keys the keys to insert and look up
+     */
+    static void benchBpTree(int[] keys) {
+        out.println("BpTreeMap: " + keys.length + " keys");
+        out.printf("%8s %8s %14s %12s %12s%n", "order", "height", "nodes/lookup", "insert ms", "lookup ms");
+        for (int order : ORDERS) {
+            BpTreeMap<Integer, Integer> bpt = new BpTreeMap<>(Integer.class, Integer.class, order);
+            long t0 = System.nanoTime();
+            for (int k : keys) bpt.put(k, k);
+            long t1 = System.nanoTime();
+            bpt.setCount(0);
+            for (int k : keys) {
+                if (bpt.get(k) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+            } // for
+            long t2 = System.nanoTime();
+            out.printf("%8d %8d %14.2f %12d %12d%n", order, bpt.height(),
+                    bpt.getCount() / (double) keys.length, (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+        } // for
+    } // benchBpTree
+
+    /************************************************************************************
+     * Insert the keys into a B+Tree, delete most of them in random order and report the
+     * node occupancy before and after, to check that deletes keep the tree compact.
+     *
+     * @param keys  the keys to insert and then delete
+     * @param order the fanout of the tree
+     */
+    static void benchBpTreeDelete(int[] keys, int order) {
+        out.println("BpTreeMap: delete 90% of " + keys.length + " keys");
+        BpTreeMap<Integer, Integer> bpt = new BpTreeMap<>(Integer.class, Integer.class, order);
+        for (int k : keys) bpt.put(k, k);
+        out.println("before: " + bpt.stats());
+        long t0 = System.nanoTime();
+        for (int i = 0; i < keys.length; i++) {
+            if (i % 10 != 0) bpt.remove(keys[i]);
+        } // for
+        long t1 = System.nanoTime();
+        out.println("after:  " + bpt.stats() + " in " + (t1 - t0) / 1000000 + " ms");
+    } // benchBpTreeDelete
+
+    /************************************************************************************
+     * Compare ExtHashMap, for several bucket capacities, with java.util.HashMap: buckets
+     * and directory size, and insert/lookup times.  The keys are boxed up front so the
+     * timings exclude boxing.
+     *
+     * @param keys the keys to insert and look up
+     */
+    static void benchExtHash(int[] keys) {
+        Integer[] boxed = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) boxed[i] = keys[i];
+        out.println("ExtHashMap vs HashMap: " + keys.length + " keys");
+        out.printf("%10s %10s %10s %12s %12s%n", "slots", "buckets", "depth", "insert ms", "lookup ms");
+        for (int slots : SLOTS) {
+            ExtHashMap<Integer, Integer> eh = new ExtHashMap<>(Integer.class, Integer.class, 1, slots);
+            long t0 = System.nanoTime();
+            for (Integer k : boxed) eh.put(k, k);
+            long t1 = System.nanoTime();
+            for (Integer k : boxed) {
+                if (eh.get(k) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+            } // for
+            long t2 = System.nanoTime();
+            out.printf("%10d %10d %10d %12d %12d%n", slots, eh.bucketCount(), eh.globalDepth(),
+                    (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+        } // for
+        HashMap<Integer, Integer> hm = new HashMap<>();
+        long t0 = System.nanoTime();
+        for (Integer k : boxed) hm.put(k, k);
+        long t1 = System.nanoTime();
+        for (Integer k : boxed) {
+            if (hm.get(k) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+        } // for
+        long t2 = System.nanoTime();
+        out.printf("%10s %10s %10s %12d %12d%n", "HashMap", "-", "-", (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+    } // benchExtHash
+
+    /************************************************************************************
+     * Compare LinHashMaps of different load factors: home buckets, average number of
+     * buckets accessed per lookup (the map's count) and insert/lookup times.
+     *
+     * @param keys the keys to insert and look up
+     */
+    static void benchLinHash(int[] keys) {
+        out.println("LinHashMap: " + keys.length + " keys");
+        out.printf("%10s %10s %14s %12s %12s%n", "load", "buckets", "buckets/lookup", "insert ms", "lookup ms");
+        for (double lf : LOAD_FACTORS) {
+            LinHashMap<Integer, Integer> lh = new LinHashMap<>(Integer.class, Integer.class, 4, lf);
+            long t0 = System.nanoTime();
+            for (int k : keys) lh.put(k, k);
+            long t1 = System.nanoTime();
+            lh.setCount(0);
+            for (int k : keys) {
+                if (lh.get(k) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+            } // for
+            long t2 = System.nanoTime();
+            out.printf("%10.2f %10d %14.2f %12d %12d%n", lf, lh.bucketCount(),
+                    lh.getCount() / (double) keys.length, (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+        } // for
+    } // benchLinHash
+
+    /************************************************************************************
+     * Compare primary-key indexes on a single integer column: IntKeyHashMap (primitive
+     * keys and rows) against BpTreeMap and HashMap over KeyTypes, as Table would build
+     * them (a new KeyType per tuple), and IntKeyHashMap through its primitive methods.
+     *
+     * @param keys the keys to insert and look up
+     */
+    @SuppressWarnings("unchecked")
+    static void benchIntKey(int[] keys) {
+        out.println("single integer key index: " + keys.length + " keys");
+        out.printf("%16s %12s %12s%n", "index", "insert ms", "lookup ms");
+        List<Map<KeyType, Integer>> maps = new ArrayList<>();
+        maps.add(new IntKeyHashMap(Integer.class));
+        maps.add(new BpTreeMap<>(KeyType.class, Integer.class, 128));
+        maps.add(new HashMap<>());
+        for (Map<KeyType, Integer> map : maps) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < keys.length; i++) map.putIfAbsent(new KeyType(keys[i]), i);
+            long t1 = System.nanoTime();
+            for (int k : keys) {
+                if (map.get(new KeyType(k)) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+            } // for
+            long t2 = System.nanoTime();
+            out.printf("%16s %12d %12d%n", map.getClass().getSimpleName(), (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+        } // for
+        IntKeyHashMap ih = new IntKeyHashMap(Integer.class);
+        long t0 = System.nanoTime();
+        for (int i = 0; i < keys.length; i++) ih.insert(keys[i], i);
+        long t1 = System.nanoTime();
+        for (int k : keys) {
+            if (ih.getRow(k) == IntKeyHashMap.NO_ROW) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+        } // for
+        long t2 = System.nanoTime();
+        out.printf("%16s %12d %12d%n", "IntKeyHashMap/p", (t1 - t0) / 1000000, (t2 - t1) / 1000000);
+    } // benchIntKey
+
+    /************************************************************************************
+     * Return the total time the JVM has spent in garbage collection.
+     *
+     * @return the collection time in milliseconds
+     */
+    static long gcMillis() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ms += Math.max(0, gc.getCollectionTime());
+        } // for
+        return ms;
+    } // gcMillis
+
+    /************************************************************************************
+     * Return the heap in use after a collection.
+     *
+     * @return the heap used in megabytes
+     */
+    static long heapMB() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return (rt.totalMemory() - rt.freeMemory()) >> 20;
+    } // heapMB
+
+    /************************************************************************************
+     * Compare the on-heap ExtHashMap with the off-heap OffHeapHashMap as primary-key
+     * indexes over KeyTypes: insert/lookup times, time spent in garbage collection and
+     * the heap (and direct memory) each index occupies.
+     *
+     * @param keys the keys to insert and look up
+     */
+    static void benchOffHeap(int[] keys) {
+        out.println("on-heap vs off-heap hash index: " + keys.length + " keys");
+        out.printf("%16s %12s %12s %10s %10s %10s%n", "index", "insert ms", "lookup ms", "gc ms", "heap MB", "direct MB");
+        for (int v = 0; v < 2; v++) {
+            long heap0 = heapMB();
+            Map<KeyType, Integer> map = (v == 0)
+                    ? new ExtHashMap<>(KeyType.class, Integer.class, 1, 64)
+                    : new OffHeapHashMap(new KeyCodec(new Class[]{Integer.class}, 1));
+            long gc0 = gcMillis();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < keys.length; i++) map.put(new KeyType(keys[i]), i);
+            long t1 = System.nanoTime();
+            for (int k : keys) {
+                if (map.get(new KeyType(k)) == null) throw new IllegalStateException("IndexBenchmark: lost key " + k);
+            } // for
+            long t2 = System.nanoTime();
+            long gc = gcMillis() - gc0;
+            long direct = (map instanceof OffHeapHashMap) ? ((OffHeapHashMap) map).offHeapBytes() >> 20 : 0;
+            out.printf("%16s %12d %12d %10d %10d %10d%n", map.getClass().getSimpleName(), (t1 - t0) / 1000000,
+                    (t2 - t1) / 1000000, gc, heapMB() - heap0, direct);
+        } // for
+    } // benchOffHeap
+
+    /************************************************************************************
+     * Run ops operations on the map split across the given number of threads, where
+     * each operation is a lookup of a random existing key or, with probability
+     * writePct / 100, an insert of a new key.
+     *
+     * @param map      the map to exercise (preloaded with the keys 0 until n)
+     * @param n        the number of preloaded keys
+     * @param threads  the number of threads
+     * @param ops      the total number of operations
+     * @param writePct the percentage of inserts
+     * @return the throughput in million operations per second
+     */
+    static double runThreads(Map<Integer, Integer> map, int n, int threads, int ops, int writePct)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            done.add(pool.submit(() -> {
+                Random rng = new Random(id);
+                int fresh = n + id;
+                start.await();
+                for (int i = 0; i < ops / threads; i++) {
+                    if (rng.nextInt(100) < writePct) {
+                        map.put(fresh, fresh);
+                        fresh += threads;
+                    } else {
+                        map.get(rng.nextInt(n));
+                    } // if
+                } // for
+                return null;
+            }));
+        } // for
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : done) f.get();
+        long t1 = System.nanoTime();
+        pool.shutdown();
+        return ops / ((t1 - t0) / 1000.0);
+    } // runThreads
+
+    /************************************************************************************
+     * Compare the throughput of the concurrent B+Tree with a B+Tree behind one lock
+     * (Collections.synchronizedMap), for read-only and 90/10 read/insert workloads, as
+     * the number of threads grows.
+     *
+     * @param keys the keys to preload
+     */
+    static void benchConcurrentBpTree(int[] keys) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int ops = 2000000;
+        out.println("ConcurrentBpTreeMap vs synchronized BpTreeMap: " + keys.length + " keys, "
+                + cores + " cores, " + ops + " operations (Mops/s)");
+        out.printf("%8s %14s %14s %14s %14s%n", "threads", "olc read", "sync read", "olc 90/10", "sync 90/10");
+        for (int threads = 1; threads <= Math.max(4, 2 * cores); threads *= 2) {
+            double[] mops = new double[4];
+            for (int w = 0; w < 2; w++) {
+                ConcurrentBpTreeMap<Integer, Integer> olc = new ConcurrentBpTreeMap<>(128);
+                Map<Integer, Integer> sync = Collections.synchronizedMap(
+                        new BpTreeMap<>(Integer.class, Integer.class, 128));
+                for (int k : keys) {
+                    olc.put(k, k);
+                    sync.put(k, k);
+                } // for
+                mops[w * 2] = runThreads(olc, keys.length, threads, ops, w * 10);
+                mops[w * 2 + 1] = runThreads(sync, keys.length, threads, ops, w * 10);
+            } // for
+            out.printf("%8d %14.2f %14.2f %14.2f %14.2f%n", threads, mops[0], mops[1], mops[2], mops[3]);
+        } // for
+    } // benchConcurrentBpTree
+
+    /************************************************************************************
+     * Compare the throughput of the concurrent extendible hash map with ConcurrentHashMap
+     * and with an ExtHashMap behind one lock (Collections.synchronizedMap), for read-only
+     * and 90/10 read/insert workloads, as the number of threads grows.
+     *
+     * @param keys the keys to preload
+     */
+    static void benchConcurrentExtHash(int[] keys) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int ops = 2000000;
+        out.println("ConcurrentExtHashMap vs ConcurrentHashMap vs synchronized ExtHashMap: " + keys.length
+                + " keys, " + cores + " cores, " + ops + " operations (Mops/s)");
+        out.printf("%8s %10s %10s %10s %10s %10s %10s%n", "threads",
+                "ceh read", "chm read", "sync read", "ceh 90/10", "chm 90/10", "sync 90/10");
+        for (int threads = 1; threads <= Math.max(4, 2 * cores); threads *= 2) {
+            double[] mops = new double[6];
+            for (int w = 0; w < 2; w++) {
+                List<Map<Integer, Integer>> maps = new ArrayList<>();
+                maps.add(new ConcurrentExtHashMap<>());
+                maps.add(new ConcurrentHashMap<>());
+                maps.add(Collections.synchronizedMap(new ExtHashMap<>(Integer.class, Integer.class, 1, 16)));
+                for (int m = 0; m < 3; m++) {
+                    Map<Integer, Integer> map = maps.get(m);
+                    for (int k : keys) map.put(k, k);
+                    mops[w * 3 + m] = runThreads(map, keys.length, threads, ops, w * 10);
+                } // for
+            } // for
+            out.printf("%8d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f%n", threads,
+                    mops[0], mops[1], mops[2], mops[3], mops[4], mops[5]);
+        } // for
+    } // benchConcurrentExtHash
+
+    /************************************************************************************
+     * The main method runs the benchmarks.
+     *
+     * @param args the command-line arguments (args [0] gives the number of keys,
+     *             1,000,000 by default)
+     */
+    public static void main(String[] args) throws Exception {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int[] keys = shuffledKeys(n);
+        benchBpTree(keys);
+        benchBpTreeDelete(keys, 64);
+        benchConcurrentBpTree(keys);
+        benchExtHash(keys);
+        benchLinHash(keys);
+        benchIntKey(keys);
+        benchOffHeap(keys);
+        benchConcurrentExtHash(keys);
+    } // main
+
+} // IndexBenchmark class
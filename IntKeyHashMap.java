@@ -0,0 +1,420 @@
+/****************************************************************************************
+ * @file IntKeyHashMap.java
+ */
+
+import java.io.Serializable;
+import java.util.*;
+
+/****************************************************************************************
+ * This class provides a primary-key index for tables whose key is a single integer
+ * column (Byte, Short, Integer or Long).  Keys are kept as longs and row numbers as ints
+ * in parallel primitive arrays using open addressing with linear probing, so an entry
+ * costs 12 bytes and no objects.  The table size is a power of 2 and doubles when it is
+ * more than LOAD_FACTOR full.  Key 0 marks free slots, so an entry with key 0 is kept in
+ * the extra slot at the end of the arrays.
+ * <p>
+ * The map is viewed as a Map from single-column KeyTypes to row numbers, so Table can
+ * use it like any other index; the primitive methods getRow and insert skip building
+ * and unwrapping KeyTypes.
+ * <p>
+ * #usage IntKeyHashMap idx = new IntKeyHashMap (Integer.class, 1000)
+ */
+public class IntKeyHashMap
+        extends AbstractMap<KeyType, Integer>
+        implements Serializable {
+    /**
+     * The row returned by getRow for an absent key (row numbers are non-negative).
+     */
+    public static final int NO_ROW = -1;
+
+    /**
+     * The fraction of slots that may be occupied before the table doubles.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+
+    /**
+     * The class of the key column (used to rebuild KeyTypes for iteration).
+     */
+    private final Class keyClass;
+
+    /**
+     * The keys, indexed by slot (slot mask + 1 holds key 0).
+     */
+    private long[] keys;
+
+    /**
+     * The row numbers, indexed by slot.
+     */
+    private int[] rows;
+
+    /**
+     * The number of hashed slots minus 1 (the number of slots is a power of 2).
+     */
+    private int mask;
+
+    /**
+     * Whether key 0 is present.
+     */
+    private boolean hasZero = false;
+
+    /**
+     * The number of entries.
+     */
+    private int size = 0;
+
+    /************************************************************************************
+     * Construct an empty map for keys of the given integer class.
+     *
+     * @param _keyClass the class of the key column
+     * @param expected  the expected number of entries (to presize the table)
+     */
+    public IntKeyHashMap(Class _keyClass, int expected) {
+        if (!isIntegral(_keyClass)) {
+            throw new IllegalArgumentException("IntKeyHashMap: not an integer domain " + _keyClass);
+        } // if
+        keyClass = _keyClass;
+        allocate(capacity(expected));
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty map for keys of the given integer class.
+     *
+     * @param _keyClass the class of the key column
+     */
+    public IntKeyHashMap(Class _keyClass) {
+        this(_keyClass, 0);
+    } // constructor
+
+    /************************************************************************************
+     * Determine whether the class is an integer domain this map can key on.
+     *
+     * @param c the domain class
+     * @return whether c is Byte, Short, Integer or Long
+     */
+    public static boolean isIntegral(Class c) {
+        return c == Integer.class || c == Long.class || c == Short.class || c == Byte.class;
+    } // isIntegral
+
+    /************************************************************************************
+     * Grow the table (if needed) so that the expected number of entries fit without
+     * further doubling, e.g., before entering the keys of a whole table.
+     *
+     * @param expected the expected number of entries
+     */
+    public void ensureCapacity(int expected) {
+        int cap = capacity(expected);
+        if (cap > mask + 1) rehash(cap);
+    } // ensureCapacity
+
+    /************************************************************************************
+     * Return the row for the key.
+     *
+     * @param k the key
+     * @return the row, or NO_ROW if the key is absent
+     */
+    public int getRow(long k) {
+        int s = slot(k);
+        return (s < 0) ? NO_ROW : rows[s];
+    } // getRow
+
+    /************************************************************************************
+     * Insert the key with the given row unless the key is already present.
+     *
+     * @param k   the key
+     * @param row the row
+     * @return whether the key was inserted
+     */
+    public boolean insert(long k, int row) {
+        if (slot(k) >= 0) return false;
+        add(k, row);
+        return true;
+    } // insert
+
+    /************************************************************************************
+     * Given the key, look up the row.
+     *
+     * @param key the key (a single-column KeyType)
+     * @return the row, or null if the key is absent or not an integer key
+     */
+    public Integer get(Object key) {
+        if (!isKey(key)) return null;
+        int s = slot(toLong((KeyType) key));
+        return (s < 0) ? null : rows[s];
+    } // get
+
+    /************************************************************************************
+     * Determine whether the key is present.
+     *
+     * @param key the key (a single-column KeyType)
+     * @return whether the key is present
+     */
+    public boolean containsKey(Object key) {
+        return isKey(key) && slot(toLong((KeyType) key)) >= 0;
+    } // containsKey
+
+    /************************************************************************************
+     * Put the key-row pair in the map.
+     *
+     * @param key the key (a single-column KeyType over an integer)
+     * @param row the row
+     * @return the previous row of the key, or null if it was absent
+     */
+    public Integer put(KeyType key, Integer row) {
+        long k = checkedLong(key);
+        int s = slot(k);
+        if (s >= 0) {
+            int old = rows[s];
+            rows[s] = row;
+            return old;
+        } // if
+        add(k, row);
+        return null;
+    } // put
+
+    /************************************************************************************
+     * Put the key-row pair in the map unless the key is present (one probe sequence,
+     * rather than the get and put of the default method).
+     *
+     * @param key the key (a single-column KeyType over an integer)
+     * @param row the row
+     * @return the row of the key if present, otherwise null
+     */
+    public Integer putIfAbsent(KeyType key, Integer row) {
+        long k = checkedLong(key);
+        int s = slot(k);
+        if (s >= 0) return rows[s];
+        add(k, row);
+        return null;
+    } // putIfAbsent
+
+    /************************************************************************************
+     * Remove the key from the map.  The entries following it in its probe run are
+     * shifted back, so no tombstones are left.
+     *
+     * @param key the key (a single-column KeyType)
+     * @return the row the key had, or null if it was absent
+     */
+    public Integer remove(Object key) {
+        if (!isKey(key)) return null;
+        int s = slot(toLong((KeyType) key));
+        if (s < 0) return null;
+        int old = rows[s];
+        size--;
+        if (s == mask + 1) {
+            hasZero = false;
+            return old;
+        } // if
+        int free = s;
+        for (int i = (s + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            // move keys[i] back unless its home lies cyclically in (free, i]
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                rows[free] = rows[i];
+                free = i;
+            } // if
+        } // for
+        keys[free] = 0;
+        return old;
+    } // remove
+
+    /************************************************************************************
+     * Remove all entries, keeping the current table size.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        hasZero = false;
+        size = 0;
+    } // clear
+
+    /************************************************************************************
+     * Return the number of entries.
+     *
+     * @return the size of the map
+     */
+    public int size() {
+        return size;
+    } // size
+
+    /************************************************************************************
+     * Return a set view of the entries, in slot order.  The view does not support
+     * removal.
+     *
+     * @return the set view of the map
+     */
+    public Set<Map.Entry<KeyType, Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<KeyType, Integer>>() {
+            public int size() {
+                return size;
+            } // size
+
+            public Iterator<Map.Entry<KeyType, Integer>> iterator() {
+                return new Iterator<Map.Entry<KeyType, Integer>>() {
+                    private int s = advance(0);
+
+                    private int advance(int i) {
+                        while (i <= mask && keys[i] == 0) i++;
+                        if (i == mask + 1 && !hasZero) i++;
+                        return i;
+                    } // advance
+
+                    public boolean hasNext() {
+                        return s <= mask + 1;
+                    } // hasNext
+
+                    public Map.Entry<KeyType, Integer> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        Map.Entry<KeyType, Integer> e = new AbstractMap.SimpleImmutableEntry<>(
+                                new KeyType(box(keys[s])), rows[s]);
+                        s = advance(s + 1);
+                        return e;
+                    } // next
+                };
+            } // iterator
+        };
+    } // entrySet
+
+    //----------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Return the number of hashed slots (a power of 2, at least 16) that holds the
+     * expected number of entries within the load factor.
+     *
+     * @param expected the expected number of entries
+     * @return the number of slots
+     */
+    private static int capacity(int expected) {
+        int cap = 16;
+        while (cap * LOAD_FACTOR < expected) cap *= 2;
+        return cap;
+    } // capacity
+
+    /************************************************************************************
+     * Allocate empty arrays with cap hashed slots plus the slot for key 0.
+     *
+     * @param cap the number of hashed slots (a power of 2)
+     */
+    private void allocate(int cap) {
+        keys = new long[cap + 1];
+        rows = new int[cap + 1];
+        mask = cap - 1;
+    } // allocate
+
+    /************************************************************************************
+     * Return the slot holding the key.
+     *
+     * @param k the key
+     * @return the slot, or -1 if the key is absent
+     */
+    private int slot(long k) {
+        if (k == 0) return hasZero ? mask + 1 : -1;
+        for (int i = hash(k) & mask; ; i = (i + 1) & mask) {
+            long ki = keys[i];
+            if (ki == k) return i;
+            if (ki == 0) return -1;
+        } // for
+    } // slot
+
+    /************************************************************************************
+     * Add an absent key, doubling the table first if it would become too full.
+     *
+     * @param k   the key
+     * @param row the row
+     */
+    private void add(long k, int row) {
+        if (k == 0) {
+            hasZero = true;
+            rows[mask + 1] = row;
+        } else {
+            if (size + 1 > (mask + 1) * LOAD_FACTOR) rehash(2 * (mask + 1));
+            int i = hash(k) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = k;
+            rows[i] = row;
+        } // if
+        size++;
+    } // add
+
+    /************************************************************************************
+     * Enlarge the table to cap hashed slots and reinsert the entries.
+     *
+     * @param cap the new number of hashed slots (a power of 2)
+     */
+    private void rehash(int cap) {
+        long[] oldKeys = keys;
+        int[] oldRows = rows;
+        int oldCap = mask + 1;
+        allocate(cap);
+        keys[mask + 1] = oldKeys[oldCap];
+        rows[mask + 1] = oldRows[oldCap];
+        for (int j = 0; j < oldCap; j++) {
+            long k = oldKeys[j];
+            if (k == 0) continue;
+            int i = hash(k) & mask;
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = k;
+            rows[i] = oldRows[j];
+        } // for
+    } // rehash
+
+    /************************************************************************************
+     * Hash the key, multiplying by the golden ratio so that the low bits depend on all
+     * the key's bits (sequential keys then spread over the table).
+     *
+     * @param k the key
+     * @return the hash
+     */
+    private static int hash(long k) {
+        long h = k * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    } // hash
+
+    /************************************************************************************
+     * Determine whether the object is a single-column KeyType over an integer.
+     *
+     * @param key the object to check
+     * @return whether it can be a key of this map
+     */
+    private static boolean isKey(Object key) {
+        if (!(key instanceof KeyType)) return false;
+        KeyType k = (KeyType) key;
+        return k.size() == 1 && isIntegral(k.get(0).getClass());
+    } // isKey
+
+    /************************************************************************************
+     * Return the key as a long, rejecting keys this map cannot hold.
+     *
+     * @param key the key
+     * @return the key's single column as a long
+     */
+    private static long checkedLong(KeyType key) {
+        if (!isKey(key)) throw new ClassCastException("IntKeyHashMap: not a single integer key " + key);
+        return toLong(key);
+    } // checkedLong
+
+    /************************************************************************************
+     * Return the single column of the key as a long.
+     *
+     * @param key the key
+     * @return the key as a long
+     */
+    private static long toLong(KeyType key) {
+        return ((Number) key.get(0)).longValue();
+    } // toLong
+
+    /************************************************************************************
+     * Box the key as an instance of the key column's class.
+     *
+     * @param k the key
+     * @return the boxed key
+     */
+    private Comparable box(long k) {
+        if (keyClass == Integer.class) return (int) k;
+        if (keyClass == Long.class) return k;
+        if (keyClass == Short.class) return (short) k;
+        return (byte) k;
+    } // box
+
+} // IntKeyHashMap class
@@ -0,0 +1,252 @@
+/****************************************************************************************
+ * @file KeyCodec.java
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/****************************************************************************************
+ * This class encodes keys (KeyType) as fixed-width byte strings whose unsigned
+ * lexicographic order is the order of the keys, so encoded keys can be stored and
+ * compared in pages and buffers without being decoded.  Integers are stored big-endian
+ * with the sign bit flipped, reals with the IEEE bits adjusted so that negatives sort
+ * first, and strings as their UTF-8 bytes padded with zeros to a fixed width.
+ */
+public class KeyCodec {
+    /**
+     * The domains that can be encoded, indexed by their type code.
+     */
+    static final Class[] TYPES = {Integer.class, Long.class, Short.class, Byte.class,
+            Double.class, Float.class, Character.class, String.class};
+
+    /**
+     * The type code of each key attribute.
+     */
+    final byte[] type;
+
+    /**
+     * The number of bytes used for a String attribute.
+     */
+    final int strWidth;
+
+    /**
+     * The width of an encoded key in bytes.
+     */
+    final int width;
+
+    /************************************************************************************
+     * Construct a codec for keys from the given domains.
+     *
+     * @param domain   the domains of the key attributes
+     * @param strWidth the number of bytes reserved for each String attribute
+     */
+    public KeyCodec(Class[] domain, int strWidth) {
+        this.strWidth = strWidth;
+        type = new byte[domain.length];
+        int w = 0;
+        for (int j = 0; j < domain.length; j++) {
+            type[j] = (byte) Arrays.asList(TYPES).indexOf(domain[j]);
+            if (type[j] < 0) throw new IllegalArgumentException("KeyCodec: unsupported domain " + domain[j]);
+            w += width(type[j]);
+        } // for
+        width = w;
+    } // constructor
+
+    /************************************************************************************
+     * Construct a codec from type codes (as stored by DiskBpTree).
+     *
+     * @param _type     the type codes
+     * @param _strWidth the number of bytes reserved for each String attribute
+     */
+    KeyCodec(byte[] _type, int _strWidth) {
+        this(domains(_type), _strWidth);
+    } // constructor
+
+    private static Class[] domains(byte[] type) {
+        Class[] dom = new Class[type.length];
+        for (int j = 0; j < type.length; j++) dom[j] = TYPES[type[j]];
+        return dom;
+    } // domains
+
+    /************************************************************************************
+     * Return the encoded width of an attribute with the given type code.
+     *
+     * @param t the type code
+     * @return the width in bytes
+     */
+    private int width(int t) {
+        switch (t) {
+        case 0: case 5: return 4;
+        case 1: case 4: return 8;
+        case 2: case 6: return 2;
+        case 3: return 1;
+        default: return strWidth;
+        } // switch
+    } // width
+
+    /************************************************************************************
+     * Encode a key into dest at its current position.
+     *
+     * @param k    the key to encode
+     * @param dest the buffer receiving width bytes
+     */
+    public void encode(KeyType k, ByteBuffer dest) {
+        if (!tryEncode(k, dest)) {
+            throw new IllegalArgumentException("KeyCodec: key " + k + " does not match the key domains"
+                    + " or has a string longer than " + strWidth + " bytes");
+        } // if
+    } // encode
+
+    /************************************************************************************
+     * Encode a key into dest at its current position, unless it cannot be encoded: its
+     * values do not match the key domains, or a string is longer than strWidth bytes
+     * (or ends in a zero byte).  No stored key can equal such a key, so a lookup can
+     * treat it as absent.
+     *
+     * @param k    the key to encode
+     * @param dest the buffer receiving width bytes (its contents are undefined on failure)
+     * @return whether the key was encoded
+     */
+    public boolean tryEncode(KeyType k, ByteBuffer dest) {
+        if (k.size() != type.length) return false;
+        for (int j = 0; j < type.length; j++) {
+            if (!encodeValue(type[j], k.get(j), dest)) return false;
+        } // for
+        return true;
+    } // tryEncode
+
+    /************************************************************************************
+     * Encode a bound of a key range.  A string longer than strWidth bytes is clamped:
+     * the bound becomes the least encoded key above every key sharing the string's
+     * first strWidth bytes, which lies between the same stored keys as the string.
+     *
+     * @param k the bound (its values must match the key domains)
+     * @return the encoded bound
+     */
+    public byte[] encodeBound(KeyType k) {
+        if (k.size() != type.length) throw new IllegalArgumentException("KeyCodec: bound " + k + " has the wrong arity");
+        byte[] b = new byte[width];
+        ByteBuffer dest = ByteBuffer.wrap(b);
+        for (int j = 0; j < type.length; j++) {
+            Comparable v = k.get(j);
+            if (type[j] == 7 && v instanceof String) {
+                byte[] s = ((String) v).getBytes(StandardCharsets.UTF_8);
+                if (s.length > strWidth) {
+                    dest.put(s, 0, strWidth);
+                    int i = dest.position() - 1;
+                    while (i >= 0 && ++b[i] == 0) i--;                // add one (big-endian)
+                    return b;                                          // later values stay zero
+                } // if
+            } // if
+            if (!encodeValue(type[j], v, dest)) {
+                throw new IllegalArgumentException("KeyCodec: bound " + k + " does not match the key domains");
+            } // if
+        } // for
+        return b;
+    } // encodeBound
+
+    /************************************************************************************
+     * Encode one value of a key.
+     *
+     * @param t    the type code of the value's attribute
+     * @param v    the value
+     * @param dest the buffer receiving the value's bytes
+     * @return whether the value could be encoded
+     */
+    private boolean encodeValue(int t, Comparable v, ByteBuffer dest) {
+        if (!TYPES[t].isInstance(v)) return false;
+        switch (t) {
+        case 0: dest.putInt((Integer) v ^ Integer.MIN_VALUE); break;
+        case 1: dest.putLong((Long) v ^ Long.MIN_VALUE); break;
+        case 2: dest.putShort((short) ((Short) v ^ Short.MIN_VALUE)); break;
+        case 3: dest.put((byte) ((Byte) v ^ Byte.MIN_VALUE)); break;
+        case 4: {
+            long bits = Double.doubleToLongBits((Double) v);
+            dest.putLong(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+            break;
+        }
+        case 5: {
+            int bits = Float.floatToIntBits((Float) v);
+            dest.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+            break;
+        }
+        case 6: dest.putChar((Character) v); break;
+        default: {
+            byte[] b = ((String) v).getBytes(StandardCharsets.UTF_8);
+            if (b.length > strWidth || (b.length > 0 && b[b.length - 1] == 0)) return false;
+            dest.put(b);
+            for (int i = b.length; i < strWidth; i++) dest.put((byte) 0);
+        }
+        } // switch
+        return true;
+    } // encodeValue
+
+    /************************************************************************************
+     * Encode a key as a new byte array.
+     *
+     * @param k the key to encode
+     * @return the encoded key
+     */
+    public byte[] encode(KeyType k) {
+        byte[] b = new byte[width];
+        encode(k, ByteBuffer.wrap(b));
+        return b;
+    } // encode
+
+    /************************************************************************************
+     * Decode a key from src at its current position, advancing past it.
+     *
+     * @param src the buffer holding an encoded key
+     * @return the decoded key
+     */
+    public KeyType decode(ByteBuffer src) {
+        Comparable[] v = new Comparable[type.length];
+        for (int j = 0; j < type.length; j++) {
+            switch (type[j]) {
+            case 0: v[j] = src.getInt() ^ Integer.MIN_VALUE; break;
+            case 1: v[j] = src.getLong() ^ Long.MIN_VALUE; break;
+            case 2: v[j] = (short) (src.getShort() ^ Short.MIN_VALUE); break;
+            case 3: v[j] = (byte) (src.get() ^ Byte.MIN_VALUE); break;
+            case 4: {
+                long bits = src.getLong();
+                v[j] = Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+                break;
+            }
+            case 5: {
+                int bits = src.getInt();
+                v[j] = Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits);
+                break;
+            }
+            case 6: v[j] = src.getChar(); break;
+            default: {
+                byte[] b = new byte[strWidth];
+                src.get(b);
+                int len = strWidth;
+                while (len > 0 && b[len - 1] == 0) len--;
+                v[j] = new String(b, 0, len, StandardCharsets.UTF_8);
+            }
+            } // switch
+        } // for
+        return new KeyType(v);
+    } // decode
+
+    /************************************************************************************
+     * Compare two encoded keys stored in buffers (unsigned lexicographic order).
+     *
+     * @param a    the buffer holding the first key
+     * @param aOff the offset of the first key
+     * @param b    the buffer holding the second key
+     * @param bOff the offset of the second key
+     * @return a negative, zero or positive integer as the first key is less, equal or
+     * greater
+     */
+    int compare(ByteBuffer a, int aOff, ByteBuffer b, int bOff) {
+        for (int i = 0; i < width; i++) {
+            int cmp = (a.get(aOff + i) & 0xff) - (b.get(bOff + i) & 0xff);
+            if (cmp != 0) return cmp;
+        } // for
+        return 0;
+    } // compare
+
+} // KeyCodec class
@@ -42,6 +42,25 @@ public class KeyType
          for (int i = 1; i < key.length; i++) key [i] = keys [i-1];
     } // constructor
 
+    /*************************************************************************************
+     * Return the number of attribute values in the key.
+     * @return  the length of the key
+     */
+    public int size ()
+    {
+        return key.length;
+    } // size
+
+    /*************************************************************************************
+     * Return the i-th attribute value of the key.
+     * @param i  the position of the value
+     * @return  the attribute value
+     */
+    public Comparable get (int i)
+    {
+        return key [i];
+    } // get
+
     /*************************************************************************************
      * Compare two keys (negative => less than, zero => equals, positive => greater than).
      * @param k  the other key (to compare with this)
@@ -67,6 +86,21 @@ public class KeyType
         return compareTo (k) == 0;
     } // equals
 
+    /*************************************************************************************
+     * Determine whether this key equals another object.  Hash-based structures (e.g.,
+     * HashMap) call this overload, so it must agree with equals (KeyType).
+     * @param o  the other object (to compare with this)
+     * @return  true if o is a KeyType with equal attribute values, false otherwise
+     */
+    @Override
+    public boolean equals (Object o)
+    {
+        if (this == o) return true;
+        if (! (o instanceof KeyType)) return false;
+        KeyType k = (KeyType) o;
+        return key.length == k.key.length && compareTo (k) == 0;
+    } // equals
+
     /*************************************************************************************
      * Compute a hash code for this object (equal objects should produce the same hash code).
      * @return  an integer hash code value
@@ -74,7 +108,7 @@ public class KeyType
     public int hashCode ()
     {
         int sum = 0;
-        for (int i = 0; i < key.length; i++) sum = 7 * sum + key [i].hashCode ();
+        for (int i = 0; i < key.length; i++) sum = 31 * sum + key [i].hashCode ();
         return sum;
     } // hashCode
 
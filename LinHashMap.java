@@ -15,7 +15,11 @@ import java.util.*;
 
 /************************************************************************************
  * This class provides hash maps that use the Linear Hashing algorithm.
- * A hash table is created that is an array of buckets.
+ * A hash table is created that is an array of buckets.  When the number of
+ * entries exceeds loadFactor * SLOTS * (number of home buckets), the bucket at
+ * the split pointer is split: its chain is rehashed with the high resolution
+ * hash function (mod2) and the keys that move go to a new home bucket appended
+ * to the table.
  */
 /**
  * @author esc
@@ -28,10 +32,13 @@ public class LinHashMap <K, V>
        implements Serializable, Cloneable, Map <K, V>
 {
     /** The number of slots (for key-value pairs) per bucket.
-    /** The number of slots (for key-value pairs) per 
      */
     private static final int SLOTS = 4;
 
+    /** The default load factor (average fill of the home buckets that triggers a split).
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
     /** The class for type K.
      */
     private final Class <K> classK;
@@ -41,19 +48,23 @@ public class LinHashMap <K, V>
     private final Class <V> classV;
 
     /********************************************************************************
-     * This inner class defines buckets that are stored in the hash table.
+     * This inner class defines buckets that are stored in the hash table.  The hash
+     * of each key is kept so that lookups compare hashes first and splits need not
+     * rehash.
      */
     private class Bucket
     {
         int    nKeys;
+        int [] hash;
         K []   key;
         V []   value;
-        Bucket next; //reference to 
+        Bucket next; // reference to the next bucket in the overflow chain
         @SuppressWarnings("unchecked")
                 // Constructor ~~~~
         Bucket (Bucket n)
         {
             nKeys = 0;
+            hash  = new int [SLOTS];
             key   = (K []) Array.newInstance (classK, SLOTS);
             value = (V []) Array.newInstance (classV, SLOTS);
             next  = n;
@@ -72,6 +83,14 @@ public class LinHashMap <K, V>
      */
     private int mod2;
 
+    /** The load factor that triggers a split.
+     */
+    private final double loadFactor;
+
+    /** The number of key-value pairs stored.
+     */
+    private int nEntries = 0;
+
     /** Counter for the number buckets accessed (for performance testing).
      */
     private int count = 0;
@@ -88,11 +107,26 @@ public class LinHashMap <K, V>
      */
     public LinHashMap (Class <K> _classK, Class <V> _classV, int initSize)
     {
-        classK = _classK;
-        classV = _classV;
-        hTable = new ArrayList <> ();
-        mod1   = initSize;
-        mod2   = 2 * mod1;
+        this (_classK, _classV, initSize, LOAD_FACTOR);
+    } // constructor
+
+    /********************************************************************************
+     * Construct a hash table that uses Linear Hashing with the given load factor.
+     * @param classK      the class for keys (K)
+     * @param classV      the class for keys (V)
+     * @param initSize    the initial number of home buckets (a power of 2, e.g., 4)
+     * @param loadFactor  the average fill of the home buckets that triggers a split
+     */
+    public LinHashMap (Class <K> _classK, Class <V> _classV, int initSize, double _loadFactor)
+    {
+        if (initSize < 1) throw new IllegalArgumentException ("LinHashMap: initSize must be positive");
+        if (! (_loadFactor > 0.0)) throw new IllegalArgumentException ("LinHashMap: loadFactor must be positive");
+        classK     = _classK;
+        classV     = _classV;
+        loadFactor = _loadFactor;
+        hTable     = new ArrayList <> ();
+        mod1       = initSize;
+        mod2       = 2 * mod1;
         for (int i = 0; i < initSize; i++){ //initialize empty buckets
             hTable.add(new Bucket(null));
         }
@@ -106,14 +140,9 @@ public class LinHashMap <K, V>
     {
         Set <Map.Entry <K, V>> enSet = new HashSet <> (); //return set of (K,V)
 
-        //  T O   B E   I M P L E M E N T E D
         for (Bucket b : hTable) {
-            for (int j=0; j < b.nKeys; j++){
-                enSet.add (new AbstractMap.SimpleEntry <> (b.key[j], b.value[j]));
-            }
-            while (b.next != null){
-                b = b.next;
-                for (int j=0; j < b.nKeys; j++){
+            for (; b != null; b = b.next) {
+                for (int j = 0; j < b.nKeys; j++){
                     enSet.add (new AbstractMap.SimpleEntry <> (b.key[j], b.value[j]));
                 }
             }
@@ -129,16 +158,11 @@ public class LinHashMap <K, V>
      */
     public V get (Object key) // input Key --> (lookup)--> Value
     {
-        int i = h (key);
-
-        //  T O   B E   I M P L E M E N T E D
-        if (i < split){
-            i = h2(key);
-        }
-        for (Bucket b = hTable.get(i); b != null; b = b.next) {
-            setCount(getCount() + 1);
+        int hk = hash (key);
+        for (Bucket b = hTable.get (home (hk)); b != null; b = b.next) {
+            count++;
             for (int j = 0; j < b.nKeys; j++){
-                if (key.equals(b.key[j])){
+                if (b.hash[j] == hk && key.equals(b.key[j])){
                     return b.value[j];
                 }
             }
@@ -148,83 +172,99 @@ public class LinHashMap <K, V>
     } // get
 
     /********************************************************************************
-     * Put the key-value pair in the hash table.
+     * Put the key-value pair in the hash table.  Once the load factor is exceeded
+     * the bucket at the split pointer is split (one split per insert).
      * @param key    the key to insert
      * @param value  the value to insert
-     * @return  null (not the previous value)
+     * @return  the previous value of the key, or null if it was absent
      */
     public V put (K key, V value)
     {
-        int i = h (key);
-        
-        //  T O   B E   I M P L E M E N T E D
-        if (i < split){
-            i = h2(key);
-        }
-        
-        Bucket b = hTable.get(i);
-        if (b.nKeys < SLOTS){
-            b.key[b.nKeys] = key;
-            b.value[b.nKeys] = value;
-            b.nKeys++;
-        }
-        else {
-            hTable.add(new Bucket(null));
-            while(b.next != null){
-                b = b.next;
-            }
-            if (b.nKeys < SLOTS){
-                b.key[b.nKeys] = key;
-                b.value[b.nKeys] = value;
-                b.nKeys++;
-            }
-            else {
-                
-                Bucket a = new Bucket(null);
-                //add overflow chain
-                a.key[0] = key;
-                a.value[0] = value;
-                a.nKeys++;
-                b.next = a;
-            }
-            //split the bucket
-            Bucket bSplit=hTable.get(split);
-            ArrayList<K> keysCopy = new ArrayList<>();
-            ArrayList<V> valuesCopy = new ArrayList<>();
-                
-            //store all the key/value of the splitted buckets in lists
-            for (; bSplit!=null; bSplit=bSplit.next){
-                for(int k=0; k<bSplit.nKeys;k++){
-                    keysCopy.add(bSplit.key[k]);
-                    valuesCopy.add(bSplit.value[k]);
+        int hk = hash (key);
+        Bucket b = hTable.get (home (hk));
+        for (;; b = b.next) {
+            for (int j = 0; j < b.nKeys; j++){
+                if (b.hash[j] == hk && key.equals(b.key[j])){
+                    V old = b.value[j];
+                    b.value[j] = value;
+                    return old;
                 }
             }
-            hTable.set(split, new Bucket(null));
-            
-            split++;
+            if (b.next == null) break;
+        } // for
 
-            for (int j=0; j<keysCopy.size(); j++){
-                put(keysCopy.get(j), valuesCopy.get(j));
-            }
-            
-            if (split == mod1) {
-                split = 0;
-                mod1 = mod2;
-                mod2 = 2*mod1;
-            }
-        }
+        if (b.nKeys == SLOTS) b = b.next = new Bucket (null);   // add overflow bucket
+        b.hash[b.nKeys]  = hk;
+        b.key[b.nKeys]   = key;
+        b.value[b.nKeys] = value;
+        b.nKeys++;
+        nEntries++;
+
+        if (nEntries > loadFactor * SLOTS * hTable.size ()) splitBucket ();
         return null;
     } // put
 
     /********************************************************************************
-     * Return the size (SLOTS * number of home buckets) of the hash table. 
+     * Split the bucket at the split pointer.  Its chain is compacted in place: the
+     * entries that stay are slid forward over the chain and the entries that move
+     * (whose high resolution hash is not split) are appended to a new home bucket.
+     * Trailing buckets of the chain left empty are dropped.
+     */
+    private void splitBucket ()
+    {
+        Bucket head = hTable.get (split);
+        Bucket nb   = new Bucket (null);
+        hTable.add (nb);
+
+        Bucket wb = head, tail = nb;                          // write positions
+        int    wj = 0;
+        for (Bucket b = head; b != null; b = b.next) {
+            for (int j = 0; j < b.nKeys; j++) {
+                if (b.hash[j] % mod2 == split) {
+                    if (wj == SLOTS) { wb = wb.next; wj = 0; }
+                    wb.hash[wj]  = b.hash[j];
+                    wb.key[wj]   = b.key[j];
+                    wb.value[wj] = b.value[j];
+                    wj++;
+                } else {
+                    if (tail.nKeys == SLOTS) tail = tail.next = new Bucket (null);
+                    tail.hash[tail.nKeys]  = b.hash[j];
+                    tail.key[tail.nKeys]   = b.key[j];
+                    tail.value[tail.nKeys] = b.value[j];
+                    tail.nKeys++;
+                } // if
+            } // for
+        } // for
+        Arrays.fill (wb.key, wj, SLOTS, null);
+        Arrays.fill (wb.value, wj, SLOTS, null);
+        wb.nKeys = wj;
+        wb.next  = null;
+
+        if (++split == mod1) {
+            split = 0;
+            mod1  = mod2;
+            mod2  = 2 * mod1;
+        } // if
+    } // splitBucket
+
+    /********************************************************************************
+     * Return the size (number of key-value pairs) of the hash table. 
      * @return  the size of the hash table
      */
     public int size ()
     {
-        return SLOTS * (mod1 + split);
+        return nEntries;
     } // size
 
+    /********************************************************************************
+     * Return the number of home buckets in the hash table.
+     * @return  the number of home buckets
+     */
+    public int bucketCount ()
+    {
+        return hTable.size ();
+    } // bucketCount
+
     /********************************************************************************
      * Print the hash table.
      */
@@ -254,24 +294,29 @@ public class LinHashMap <K, V>
     } // print
 
     /********************************************************************************
-     * Hash the key using the low resolution hash function.
+     * Hash the key to a non-negative int, folding the high bits into the low bits
+     * used by the moduli.
      * @param key  the key to hash
-     * @return  the location of the bucket chain containing the key-value pair
+     * @return  the hash of the key
      */
-    private int h (Object key)
+    private static int hash (Object key)
     {
-        return key.hashCode () % mod1;
-    } // h
+        int h = key.hashCode ();
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    } // hash
 
     /********************************************************************************
-     * Hash the key using the high resolution hash function.
-     * @param key  the key to hash
+     * Return the home bucket of a hash: the low resolution hash function (mod1) is
+     * used, unless the bucket it gives has already been split this round, in which
+     * case the high resolution hash function (mod2) is used.
+     * @param hk  the hash of the key
      * @return  the location of the bucket chain containing the key-value pair
      */
-    private int h2 (Object key)
+    private int home (int hk)
     {
-        return key.hashCode () % mod2;
-    } // h2
+        int i = hk % mod1;
+        return (i < split) ? hk % mod2 : i;
+    } // home
 
     /********************************************************************************
      * The main method used for testing.
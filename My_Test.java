@@ -137,6 +137,12 @@ class My_Test {
 		t_iselect = movieStar.select(new KeyType("9/9/99"));
 		t_iselect.print();
 
+		// --------------------- range select
+
+		out.println();
+		Table t_rselect = movie.select(new KeyType("Rambo", 1978), new KeyType("Star_Wars", 1977));
+		t_rselect.print();
+
 		// --------------------- union
 
 		out.println();
@@ -171,6 +177,10 @@ class My_Test {
 		Table t_join = movie.join("studioName", "name", studio);
 		t_join.print();
 
+		out.println();
+		t_join = movie.join("studioName", "name", studio, 2);
+		t_join.print();
+
 		out.println();
 		Table t_join2 = movie.join("title year", "title year", cinema);
 		t_join2.print();
@@ -183,6 +193,13 @@ class My_Test {
 		t_join2 = movie.join("title year", "title year", starsIn);
 		t_join2.print();
 
+		// --------------------- pipelined query
+
+		out.println();
+		Table t_pipe = movie.scan().select(t -> t[movie.col("year")].equals(1977))
+				.project("title studioName").join("studioName", "name", studio.scan())
+				.toTable("pipe");
+		t_pipe.print();
 
 	} // main
 
@@ -0,0 +1,437 @@
+/****************************************************************************************
+ * @file OffHeapHashMap.java
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/****************************************************************************************
+ * This class provides a primary-key index for very large tables that keeps its entries
+ * outside the garbage-collected heap.  It uses Extendable Hashing (as ExtHashMap does),
+ * but its buckets are fixed-size pages in direct ByteBuffers, allocated in chunks of
+ * CHUNK buckets.  Each entry holds the hash of the key, the row number and the key
+ * encoded by a KeyCodec, so lookups compare hashes and then encoded bytes without
+ * decoding.  Only the directory (an int per slot, naming a bucket) is on the heap, so the
+ * heap holds a few objects however many keys are indexed, and collections do not slow
+ * down as the table grows.
+ * <p>
+ * Lookups (get, containsKey) may run concurrently with one another: each thread encodes
+ * its key into its own scratch buffer and the buckets are only read.  Puts and removes
+ * must not run concurrently with any other operation.
+ * <p>
+ * Bucket layout: nKeys (int), local depth (int), then nKeys entries of
+ * hash (int), row (int), key (codec.width bytes).
+ * <p>
+ * #usage OffHeapHashMap idx = new OffHeapHashMap (new KeyCodec (domain, 32))
+ */
+public class OffHeapHashMap
+        extends AbstractMap<KeyType, Integer> {
+    /**
+     * The default size of a bucket in bytes (small, since a lookup scans its bucket).
+     */
+    private static final int BUCKET_SIZE = 512;
+
+    /**
+     * The number of buckets allocated together in one direct buffer.
+     */
+    private static final int CHUNK = 256;
+
+    /**
+     * The size of a bucket header (nKeys and local depth).
+     */
+    private static final int HEADER = 8;
+
+    /**
+     * The largest global depth (the directory is an int array).
+     */
+    private static final int MAX_DEPTH = 30;
+
+    /**
+     * The codec encoding the keys.
+     */
+    private final KeyCodec codec;
+
+    /**
+     * The size of a bucket in bytes.
+     */
+    private final int bucketSize;
+
+    /**
+     * The size of an entry in bytes.
+     */
+    private final int entrySize;
+
+    /**
+     * The number of entries a bucket holds.
+     */
+    private final int slots;
+
+    /**
+     * The direct buffers holding the buckets (bucket b is in chunk b / CHUNK).
+     */
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    /**
+     * The number of buckets allocated.
+     */
+    private int nBuckets = 0;
+
+    /**
+     * The directory mapping the low depth bits of a hash to a bucket number.
+     */
+    private int[] dir;
+
+    /**
+     * The global depth (the directory has 2^depth slots).
+     */
+    private int depth = 0;
+
+    /**
+     * The number of entries.
+     */
+    private int size = 0;
+
+    /**
+     * Per-thread scratch space holding the encoded key being looked up.
+     */
+    private final ThreadLocal<byte[]> probe;
+
+    /************************************************************************************
+     * Construct an empty map with buckets of the given size.
+     *
+     * @param _codec      the codec encoding the keys
+     * @param _bucketSize the size of a bucket in bytes
+     */
+    public OffHeapHashMap(KeyCodec _codec, int _bucketSize) {
+        codec = _codec;
+        bucketSize = _bucketSize;
+        entrySize = 8 + codec.width;
+        slots = (bucketSize - HEADER) / entrySize;
+        if (slots < 2) throw new IllegalArgumentException("OffHeapHashMap: bucket too small for two keys");
+        probe = ThreadLocal.withInitial(() -> new byte[codec.width]);
+        dir = new int[]{newBucket(0)};
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty map with buckets of the default size.
+     *
+     * @param _codec the codec encoding the keys
+     */
+    public OffHeapHashMap(KeyCodec _codec) {
+        this(_codec, BUCKET_SIZE);
+    } // constructor
+
+    /************************************************************************************
+     * Given the key, look up the row.
+     *
+     * @param key the key
+     * @return the row, or null if the key is absent (or could not be stored)
+     */
+    public Integer get(Object key) {
+        if (!(key instanceof KeyType)) return null;
+        byte[] k = probe.get();
+        if (!codec.tryEncode((KeyType) key, ByteBuffer.wrap(k))) return null;     // cannot be stored
+        int hk = hash(k);
+        int b = dir[hk & (dir.length - 1)];
+        int e = find(b, hk, k);
+        return (e < 0) ? null : chunk(b).getInt(e + 4);
+    } // get
+
+    /************************************************************************************
+     * Determine whether the key is present.
+     *
+     * @param key the key
+     * @return whether the key is present
+     */
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    } // containsKey
+
+    /************************************************************************************
+     * Put the key-row pair in the map, splitting the key's bucket while it is full.
+     *
+     * @param key the key
+     * @param row the row
+     * @return the previous row of the key, or null if it was absent
+     */
+    public Integer put(KeyType key, Integer row) {
+        byte[] k = probe.get();
+        codec.encode(key, ByteBuffer.wrap(k));
+        int hk = hash(k);
+        int b = dir[hk & (dir.length - 1)];
+        int e = find(b, hk, k);
+        if (e >= 0) {
+            int old = chunk(b).getInt(e + 4);
+            chunk(b).putInt(e + 4, row);
+            return old;
+        } // if
+
+        while (nKeys(b) == slots) {
+            split(b, hk);
+            b = dir[hk & (dir.length - 1)];
+        } // while
+
+        ByteBuffer buf = chunk(b);
+        int n = nKeys(b);
+        e = entry(b, n);
+        buf.putInt(e, hk);
+        buf.putInt(e + 4, row);
+        buf.put(e + 8, k);
+        buf.putInt(base(b), n + 1);
+        size++;
+        return null;
+    } // put
+
+    /************************************************************************************
+     * Remove the key from the map (buckets are not merged).  The bucket's last entry
+     * is moved into the freed slot.
+     *
+     * @param key the key
+     * @return the row the key had, or null if it was absent (or could not be stored)
+     */
+    public Integer remove(Object key) {
+        if (!(key instanceof KeyType)) return null;
+        byte[] k = probe.get();
+        if (!codec.tryEncode((KeyType) key, ByteBuffer.wrap(k))) return null;     // cannot be stored
+        int hk = hash(k);
+        int b = dir[hk & (dir.length - 1)];
+        int e = find(b, hk, k);
+        if (e < 0) return null;
+        ByteBuffer buf = chunk(b);
+        int old = buf.getInt(e + 4);
+        int n = nKeys(b) - 1;
+        int last = entry(b, n);
+        if (last != e) buf.put(e, buf, last, entrySize);
+        buf.putInt(base(b), n);
+        size--;
+        return old;
+    } // remove
+
+    /************************************************************************************
+     * Return the number of entries.
+     *
+     * @return the size of the map
+     */
+    public int size() {
+        return size;
+    } // size
+
+    /************************************************************************************
+     * Return the number of bytes of direct memory allocated for buckets.
+     *
+     * @return the off-heap footprint in bytes
+     */
+    public long offHeapBytes() {
+        return (long) chunks.size() * CHUNK * bucketSize;
+    } // offHeapBytes
+
+    /************************************************************************************
+     * Return a set view of the entries, bucket by bucket.  Keys are decoded as they are
+     * visited.  The view does not support removal.
+     *
+     * @return the set view of the map
+     */
+    public Set<Map.Entry<KeyType, Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<KeyType, Integer>>() {
+            public int size() {
+                return size;
+            } // size
+
+            public Iterator<Map.Entry<KeyType, Integer>> iterator() {
+                return new Iterator<Map.Entry<KeyType, Integer>>() {
+                    private int b = 0, j = 0;
+
+                    public boolean hasNext() {
+                        while (b < nBuckets && j >= nKeys(b)) {
+                            b++;
+                            j = 0;
+                        } // while
+                        return b < nBuckets;
+                    } // hasNext
+
+                    public Map.Entry<KeyType, Integer> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        ByteBuffer src = chunk(b).duplicate();     // keys are big-endian
+                        int e = entry(b, j++);
+                        src.position(e + 8);
+                        return new AbstractMap.SimpleImmutableEntry<>(codec.decode(src), chunk(b).getInt(e + 4));
+                    } // next
+                };
+            } // iterator
+        };
+    } // entrySet
+
+    //----------------------------------------------------------------------------------
+    // Private Methods
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Return the hash of an encoded key, computed by MurmurHash3 (32-bit) over its bytes
+     * so that the low bits that select a directory slot depend on the whole key.
+     *
+     * @param probe the encoded key
+     * @return the hash of the encoded key
+     */
+    private static int hash(byte[] probe) {
+        int h = 0, i = 0;
+        for (; i + 4 <= probe.length; i += 4) {
+            int k = (probe[i] & 0xff) | (probe[i + 1] & 0xff) << 8 | (probe[i + 2] & 0xff) << 16
+                    | probe[i + 3] << 24;
+            h ^= mix(k);
+            h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+        } // for
+        int k = 0;
+        for (int j = probe.length - 1; j >= i; j--) k = k << 8 | (probe[j] & 0xff);
+        if (i < probe.length) h ^= mix(k);
+        h ^= probe.length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    } // hash
+
+    /************************************************************************************
+     * Scramble a 4-byte block of the key (MurmurHash3).
+     */
+    private static int mix(int k) {
+        k *= 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        return k * 0x1b873593;
+    } // mix
+
+    /************************************************************************************
+     * Return the offset of the entry in bucket b holding the key in probe.
+     *
+     * @param b     the bucket
+     * @param hk    the hash of the key
+     * @param probe the encoded key
+     * @return the entry's offset in the bucket's chunk, or -1 if the key is absent
+     */
+    private int find(int b, int hk, byte[] probe) {
+        ByteBuffer buf = chunk(b);
+        int n = nKeys(b);
+        for (int j = 0, e = entry(b, 0); j < n; j++, e += entrySize) {
+            if (buf.getInt(e) == hk && sameKey(buf, e + 8, probe)) return e;
+        } // for
+        return -1;
+    } // find
+
+    /************************************************************************************
+     * Determine whether the key stored at off equals the key in probe.
+     *
+     * @param buf   the buffer holding the stored key
+     * @param off   the offset of the stored key
+     * @param probe the encoded key
+     * @return whether the encoded keys are equal
+     */
+    private static boolean sameKey(ByteBuffer buf, int off, byte[] probe) {
+        for (int i = 0; i < probe.length; i++) {
+            if (buf.get(off + i) != probe[i]) return false;
+        } // for
+        return true;
+    } // sameKey
+
+    /************************************************************************************
+     * Split bucket b on hash bit d (its local depth): the entries with that bit set
+     * move to a new bucket, and every directory slot referencing b whose index has
+     * that bit set is repointed to it.  The directory is doubled first if d equals the
+     * global depth.
+     *
+     * @param b  the bucket to split
+     * @param hk the hash of a key that belongs in b
+     */
+    private void split(int b, int hk) {
+        int d = chunk(b).getInt(base(b) + 4);
+        if (d == depth) {
+            if (depth == MAX_DEPTH || sameHash(b)) {
+                throw new IllegalStateException("OffHeapHashMap: cannot split bucket " + b);
+            } // if
+            dir = Arrays.copyOf(dir, 2 * dir.length);
+            System.arraycopy(dir, 0, dir, dir.length / 2, dir.length / 2);
+            depth++;
+        } // if
+
+        int bit = 1 << d;
+        int nb = newBucket(d + 1);
+        ByteBuffer src = chunk(b), dst = chunk(nb);
+        int n = nKeys(b), kept = 0, moved = 0;
+        for (int j = 0; j < n; j++) {
+            int e = entry(b, j);
+            if ((src.getInt(e) & bit) != 0) {
+                dst.put(entry(nb, moved++), src, e, entrySize);
+            } else {
+                if (kept != j) src.put(entry(b, kept), src, e, entrySize);
+                kept++;
+            } // if
+        } // for
+        src.putInt(base(b), kept);
+        src.putInt(base(b) + 4, d + 1);
+        dst.putInt(base(nb), moved);
+
+        // repoint every slot that referenced b and has the new bit set
+        for (int i = (hk & (bit - 1)) | bit; i < dir.length; i += 2 * bit) dir[i] = nb;
+    } // split
+
+    /************************************************************************************
+     * Determine whether all entries of bucket b have the same hash, so no split could
+     * separate them.
+     *
+     * @param b the bucket
+     * @return whether the hashes are all equal
+     */
+    private boolean sameHash(int b) {
+        ByteBuffer buf = chunk(b);
+        int h = buf.getInt(entry(b, 0));
+        for (int j = 1; j < nKeys(b); j++) {
+            if (buf.getInt(entry(b, j)) != h) return false;
+        } // for
+        return true;
+    } // sameHash
+
+    /************************************************************************************
+     * Allocate an empty bucket, adding a chunk when the last one is full.
+     *
+     * @param d the local depth of the bucket
+     * @return the bucket number
+     */
+    private int newBucket(int d) {
+        if (nBuckets == chunks.size() * CHUNK) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK * bucketSize).order(ByteOrder.nativeOrder()));
+        } // if
+        int b = nBuckets++;
+        chunk(b).putInt(base(b), 0);
+        chunk(b).putInt(base(b) + 4, d);
+        return b;
+    } // newBucket
+
+    /************************************************************************************
+     * Return the buffer holding bucket b.
+     */
+    private ByteBuffer chunk(int b) {
+        return chunks.get(b / CHUNK);
+    } // chunk
+
+    /************************************************************************************
+     * Return the offset of bucket b in its chunk.
+     */
+    private int base(int b) {
+        return (b % CHUNK) * bucketSize;
+    } // base
+
+    /************************************************************************************
+     * Return the offset of entry j of bucket b in its chunk.
+     */
+    private int entry(int b, int j) {
+        return base(b) + HEADER + j * entrySize;
+    } // entry
+
+    /************************************************************************************
+     * Return the number of entries in bucket b.
+     */
+    private int nKeys(int b) {
+        return chunk(b).getInt(base(b));
+    } // nKeys
+
+} // OffHeapHashMap class
@@ -0,0 +1,416 @@
+/****************************************************************************************
+ * @file Operator.java
+ */
+
+import java.util.*;
+import java.util.function.*;
+
+import static java.lang.System.out;
+
+/****************************************************************************************
+ * This class implements the iterator (Volcano) execution model for the relational
+ * algebra operators.  An operator produces its tuples one at a time through open, next
+ * and close, pulling them from its input operators on demand.  Operators are composed
+ * starting from Table.scan, and nothing is materialized until toTable is called.
+ * <p>
+ * #usage movie.scan ().select (t -> t[1].equals (1977)).project ("title").toTable ("q")
+ */
+public abstract class Operator {
+    /**
+     * Array of attribute names of the produced tuples.
+     */
+    protected final String[] attribute;
+
+    /**
+     * Array of attribute domains of the produced tuples.
+     */
+    protected final Class[] domain;
+
+    /**
+     * Primary key of the produced tuples.
+     */
+    protected final String[] key;
+
+    /************************************************************************************
+     * Construct an operator producing tuples with the given schema.
+     *
+     * @param _attribute the attribute names
+     * @param _domain    the attribute domains
+     * @param _key       the primary key
+     */
+    protected Operator(String[] _attribute, Class[] _domain, String[] _key) {
+        attribute = _attribute;
+        domain = _domain;
+        key = _key;
+    } // constructor
+
+    /************************************************************************************
+     * Prepare the operator (and its inputs) for producing tuples.
+     */
+    public abstract void open();
+
+    /************************************************************************************
+     * Return the next tuple, or null when the operator is exhausted.
+     *
+     * @return the next tuple or null
+     */
+    public abstract Comparable[] next();
+
+    /************************************************************************************
+     * Release any state held by the operator (and its inputs).
+     */
+    public abstract void close();
+
+    //----------------------------------------------------------------------------------
+    // Composition
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Compose a select keeping the tuples satisfying the predicate.
+     *
+     * @param predicate the check condition for tuples
+     * @return the select operator
+     */
+    public Operator select(Predicate<Comparable[]> predicate) {
+        return new Select(this, predicate);
+    } // select
+
+    /************************************************************************************
+     * Compose a project keeping only the given attributes.
+     *
+     * @param attributes the attributes to project onto
+     * @return the project operator
+     */
+    public Operator project(String attributes) {
+        return new Project(this, attributes.split(" "));
+    } // project
+
+    /************************************************************************************
+     * Compose a union (with set semantics) of this operator and op2.
+     *
+     * @param op2 the rhs operator
+     * @return the union operator, or null if the inputs are not compatible
+     */
+    public Operator union(Operator op2) {
+        return compatible(op2) ? new Union(this, op2) : null;
+    } // union
+
+    /************************************************************************************
+     * Compose a difference (with set semantics) of this operator and op2.
+     *
+     * @param op2 the rhs operator
+     * @return the minus operator, or null if the inputs are not compatible
+     */
+    public Operator minus(Operator op2) {
+        return compatible(op2) ? new Minus(this, op2) : null;
+    } // minus
+
+    /************************************************************************************
+     * Compose an equijoin of this operator and op2 requiring attributes1 to equal
+     * attributes2.  A hash table is built on op2, and the tuples of this operator are
+     * then streamed through it.
+     *
+     * @param attributes1 the attributes of this operator to be compared
+     * @param attributes2 the attributes of op2 to be compared
+     * @param op2         the rhs operator
+     * @return the join operator
+     */
+    public Operator join(String attributes1, String attributes2, Operator op2) {
+        return new HashJoin(this, match(attributes1.split(" ")), op2,
+                op2.match(attributes2.split(" ")));
+    } // join
+
+    /************************************************************************************
+     * Run the operator to completion and materialize its tuples as a table.
+     *
+     * @param name the name of the resulting table
+     * @return the table holding every tuple produced
+     */
+    public Table toTable(String name) {
+        List<Comparable[]> rows = new ArrayList<>();
+        open();
+        for (Comparable[] tup = next(); tup != null; tup = next()) rows.add(tup);
+        close();
+        return new Table(name, attribute, domain, key, rows);
+    } // toTable
+
+    /************************************************************************************
+     * Return the column position for the given attribute name.
+     *
+     * @param attr the given attribute name
+     * @return a column position
+     */
+    public int col(String attr) {
+        for (int i = 0; i < attribute.length; i++) {
+            if (attr.equals(attribute[i])) return i;
+        } // for
+
+        return -1;  // not found
+    } // col
+
+    /************************************************************************************
+     * Determine the column positions of the given attribute names.
+     *
+     * @param column the array of column names
+     * @return an array of column index positions
+     */
+    int[] match(String[] column) {
+        int[] colPos = new int[column.length];
+        for (int j = 0; j < column.length; j++) {
+            colPos[j] = col(column[j]);
+            if (colPos[j] < 0) out.println("match: domain not found for " + column[j]);
+        } // for
+        return colPos;
+    } // match
+
+    /************************************************************************************
+     * Determine whether this operator and op2 produce tuples of the same arity and
+     * domains.
+     *
+     * @param op2 the rhs operator
+     * @return whether the two operators are compatible
+     */
+    private boolean compatible(Operator op2) {
+        if (!Arrays.equals(domain, op2.domain)) {
+            out.println("compatible ERROR: operators disagree on domains");
+            return false;
+        } // if
+        return true;
+    } // compatible
+
+    //----------------------------------------------------------------------------------
+    // Operators
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * This class scans the tuples of a table.
+     */
+    static class Scan extends Operator {
+        private final List<Comparable[]> tuples;
+        private Iterator<Comparable[]> it;
+
+        Scan(String[] _attribute, Class[] _domain, String[] _key, List<Comparable[]> _tuples) {
+            super(_attribute, _domain, _key);
+            tuples = _tuples;
+        } // constructor
+
+        public void open() {
+            it = tuples.iterator();
+        } // open
+
+        public Comparable[] next() {
+            return it.hasNext() ? it.next() : null;
+        } // next
+
+        public void close() {
+            it = null;
+        } // close
+    } // Scan class
+
+    /************************************************************************************
+     * This class passes on the input tuples satisfying a predicate.
+     */
+    private static class Select extends Operator {
+        private final Operator input;
+        private final Predicate<Comparable[]> predicate;
+
+        Select(Operator _input, Predicate<Comparable[]> _predicate) {
+            super(_input.attribute, _input.domain, _input.key);
+            input = _input;
+            predicate = _predicate;
+        } // constructor
+
+        public void open() {
+            input.open();
+        } // open
+
+        public Comparable[] next() {
+            for (Comparable[] tup = input.next(); tup != null; tup = input.next()) {
+                if (predicate.test(tup)) return tup;
+            } // for
+            return null;
+        } // next
+
+        public void close() {
+            input.close();
+        } // close
+    } // Select class
+
+    /************************************************************************************
+     * This class keeps only the given columns of the input tuples.
+     */
+    private static class Project extends Operator {
+        private final Operator input;
+        private final int[] colPos;
+
+        Project(Operator _input, String[] attrs) {
+            super(attrs, extractDom(_input, attrs),
+                    Arrays.asList(attrs).containsAll(Arrays.asList(_input.key)) ? _input.key : attrs);
+            input = _input;
+            colPos = _input.match(attrs);
+        } // constructor
+
+        private static Class[] extractDom(Operator input, String[] attrs) {
+            int[] colPos = input.match(attrs);
+            Class[] dom = new Class[colPos.length];
+            for (int j = 0; j < colPos.length; j++) dom[j] = input.domain[colPos[j]];
+            return dom;
+        } // extractDom
+
+        public void open() {
+            input.open();
+        } // open
+
+        public Comparable[] next() {
+            Comparable[] tup = input.next();
+            if (tup == null) return null;
+            Comparable[] res = new Comparable[colPos.length];
+            for (int j = 0; j < colPos.length; j++) res[j] = tup[colPos[j]];
+            return res;
+        } // next
+
+        public void close() {
+            input.close();
+        } // close
+    } // Project class
+
+    /************************************************************************************
+     * This class produces the distinct tuples of the first input, then the distinct
+     * tuples of the second input not already produced.
+     */
+    private static class Union extends Operator {
+        private final Operator input1;
+        private final Operator input2;
+        private Set<KeyType> seen;
+        private boolean first;
+
+        Union(Operator _input1, Operator _input2) {
+            super(_input1.attribute, _input1.domain, _input1.key);
+            input1 = _input1;
+            input2 = _input2;
+        } // constructor
+
+        public void open() {
+            seen = new HashSet<>();
+            first = true;
+            input1.open();
+        } // open
+
+        public Comparable[] next() {
+            if (first) {
+                for (Comparable[] tup = input1.next(); tup != null; tup = input1.next()) {
+                    if (seen.add(new KeyType(tup))) return tup;
+                } // for
+                input1.close();
+                input2.open();
+                first = false;
+            } // if
+            for (Comparable[] tup = input2.next(); tup != null; tup = input2.next()) {
+                if (seen.add(new KeyType(tup))) return tup;
+            } // for
+            return null;
+        } // next
+
+        public void close() {
+            (first ? input1 : input2).close();
+            seen = null;
+        } // close
+    } // Union class
+
+    /************************************************************************************
+     * This class produces the distinct tuples of the first input that do not appear in
+     * the second input.  The second input is consumed into a hash set on open.
+     */
+    private static class Minus extends Operator {
+        private final Operator input1;
+        private final Operator input2;
+        private Set<KeyType> seen;
+
+        Minus(Operator _input1, Operator _input2) {
+            super(_input1.attribute, _input1.domain, _input1.key);
+            input1 = _input1;
+            input2 = _input2;
+        } // constructor
+
+        public void open() {
+            seen = new HashSet<>();
+            input2.open();
+            for (Comparable[] tup = input2.next(); tup != null; tup = input2.next()) {
+                seen.add(new KeyType(tup));
+            } // for
+            input2.close();
+            input1.open();
+        } // open
+
+        public Comparable[] next() {
+            for (Comparable[] tup = input1.next(); tup != null; tup = input1.next()) {
+                if (seen.add(new KeyType(tup))) return tup;
+            } // for
+            return null;
+        } // next
+
+        public void close() {
+            input1.close();
+            seen = null;
+        } // close
+    } // Minus class
+
+    /************************************************************************************
+     * This class equijoins two inputs.  The second input is consumed into a hash table
+     * on open (build), and the first input is streamed through it (probe), producing
+     * every matching pair.
+     */
+    private static class HashJoin extends Operator {
+        private final Operator input1;
+        private final Operator input2;
+        private final int[] cols1;
+        private final int[] cols2;
+        private Map<KeyType, List<Comparable[]>> hTable;
+        private Comparable[] outer;
+        private List<Comparable[]> matches;
+        private int pos;
+
+        HashJoin(Operator _input1, int[] _cols1, Operator _input2, int[] _cols2) {
+            super(ArrayUtil.concat(_input1.attribute, _input2.attribute),
+                    ArrayUtil.concat(_input1.domain, _input2.domain), _input1.key);
+            input1 = _input1;
+            input2 = _input2;
+            cols1 = _cols1;
+            cols2 = _cols2;
+        } // constructor
+
+        private static KeyType keyOf(Comparable[] tup, int[] cols) {
+            Comparable[] k = new Comparable[cols.length];
+            for (int j = 0; j < cols.length; j++) k[j] = tup[cols[j]];
+            return new KeyType(k);
+        } // keyOf
+
+        public void open() {
+            hTable = new HashMap<>();
+            input2.open();
+            for (Comparable[] tup = input2.next(); tup != null; tup = input2.next()) {
+                hTable.computeIfAbsent(keyOf(tup, cols2), k -> new ArrayList<>(1)).add(tup);
+            } // for
+            input2.close();
+            input1.open();
+            matches = null;
+        } // open
+
+        public Comparable[] next() {
+            while (matches == null || pos == matches.size()) {
+                outer = input1.next();
+                if (outer == null) return null;
+                matches = hTable.get(keyOf(outer, cols1));
+                pos = 0;
+            } // while
+            return ArrayUtil.concat(outer, matches.get(pos++));
+        } // next
+
+        public void close() {
+            input1.close();
+            hTable = null;
+            matches = null;
+        } // close
+    } // HashJoin class
+
+} // Operator class
@@ -0,0 +1,252 @@
+/****************************************************************************************
+ * @file PagedTupleList.java
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/****************************************************************************************
+ * This abstract class presents the tuples of a database file (see DbFile) as a read-only
+ * List, decoding them from the file's pages on demand instead of loading the whole file.
+ * Iteration decodes the pages in order, one page at a time.  Random access locates the
+ * page holding a tuple through a directory of page start rows, which is built on first
+ * use, and keeps the most recently decoded page.  Subclasses decide how pages are
+ * obtained: mapped from the file or pinned in a buffer pool.
+ */
+public abstract class PagedTupleList
+        extends AbstractList<Comparable[]>
+        implements RandomAccess, Closeable {
+    /**
+     * The description (schema and counts) of the underlying file.
+     */
+    protected final DbFile db;
+
+    /**
+     * The row number of the first tuple of each page (plus a final entry for the end).
+     */
+    private int[] firstRow;
+
+    /**
+     * The number of the page most recently decoded for random access.
+     */
+    private int cachedPage = -1;
+
+    /**
+     * The tuples of the cached page.
+     */
+    private final List<Comparable[]> cached = new ArrayList<>();
+
+    /************************************************************************************
+     * Construct a tuple list over the pages of the given file.  A List is indexed by
+     * int, so files holding more than Integer.MAX_VALUE tuples are rejected.
+     *
+     * @param _db the description of the file
+     */
+    protected PagedTupleList(DbFile _db) throws IOException {
+        if (_db.nTuples > Integer.MAX_VALUE) {
+            throw new IOException("PagedTupleList: " + _db.nTuples + " tuples exceed a list's capacity");
+        } // if
+        db = _db;
+    } // constructor
+
+    /************************************************************************************
+     * Return data page p, positioned at its start with its limit at its end.  The page
+     * stays valid until release (p) is called.
+     *
+     * @param p the data page number
+     * @return the page contents
+     */
+    protected abstract ByteBuffer page(int p);
+
+    /************************************************************************************
+     * Signal that data page p, obtained from page (p), is no longer in use.
+     *
+     * @param p the data page number
+     */
+    protected void release(int p) {
+    } // release
+
+    /************************************************************************************
+     * Release the file's resources (e.g., its pages in a buffer pool).  The list must
+     * not be used afterwards.
+     */
+    public void close() throws IOException {
+    } // close
+
+    /************************************************************************************
+     * Return the number of tuples in the file.
+     */
+    public int size() {
+        return (int) db.nTuples;
+    } // size
+
+    /************************************************************************************
+     * Return tuple i, decoding its page unless it is the cached page.
+     *
+     * @param i the row number
+     * @return the decoded tuple
+     */
+    public Comparable[] get(int i) {
+        if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("row " + i);
+        if (firstRow == null) buildDirectory();
+
+        int p = Arrays.binarySearch(firstRow, i);
+        if (p < 0) p = -p - 2;
+        while (firstRow[p + 1] == i) p++;                      // skip empty pages
+
+        if (p != cachedPage) {
+            cached.clear();
+            db.decodePage(page(p), cached, this::overflow);
+            release(p);
+            cachedPage = p;
+        } // if
+        return cached.get(i - firstRow[p]);
+    } // get
+
+    /************************************************************************************
+     * Read a string stored in overflow pages (see DbFile), through page and release.
+     *
+     * @param first the data page number of the first overflow page
+     * @param len   the length of the string in bytes
+     * @return the bytes of the string
+     */
+    private byte[] overflow(int first, int len) {
+        return db.readOverflow(first, len, this::page, this::release);
+    } // overflow
+
+    /************************************************************************************
+     * Build the directory of page start rows by reading the count of every page.
+     */
+    private void buildDirectory() {
+        int[] dir = new int[db.nPages + 1];
+        for (int p = 0; p < db.nPages; p++) {
+            dir[p + 1] = dir[p] + DbFile.pageCount(page(p));
+            release(p);
+        } // for
+        firstRow = dir;
+    } // buildDirectory
+
+    /************************************************************************************
+     * Return an iterator decoding the tuples page by page, in file order.  Each page is
+     * decoded and released as soon as it is reached, so an abandoned iteration holds
+     * no page.
+     */
+    public Iterator<Comparable[]> iterator() {
+        return new Iterator<Comparable[]>() {
+            private int p = 0;
+            private final List<Comparable[]> buf = new ArrayList<>();
+            private int pos = 0;
+
+            public boolean hasNext() {
+                while (pos == buf.size() && p < db.nPages) {
+                    buf.clear();
+                    pos = 0;
+                    db.decodePage(page(p), buf, PagedTupleList.this::overflow);
+                    release(p++);
+                } // while
+                return pos < buf.size();
+            } // hasNext
+
+            public Comparable[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return buf.get(pos++);
+            } // next
+        };
+    } // iterator
+
+    //----------------------------------------------------------------------------------
+    // Implementations
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * This class serves the pages from memory-mapped regions of the file, so pages are
+     * faulted in by the operating system as they are touched and tables larger than the
+     * heap can be scanned.
+     */
+    static class Mapped extends PagedTupleList {
+        /**
+         * The number of pages per mapped region (regions are limited to 2 GB).
+         */
+        private static final int REGION_PAGES = 1 << 18;
+
+        /**
+         * The mapped regions of the data pages.
+         */
+        private final MappedByteBuffer[] region;
+
+        /************************************************************************************
+         * Map the data pages of the file opened on the given channel.  The mapping stays
+         * valid after the channel is closed.
+         *
+         * @param _db the description of the file
+         * @param ch  the channel of the file
+         */
+        Mapped(DbFile _db, FileChannel ch) throws IOException {
+            super(_db);
+            region = new MappedByteBuffer[(db.nPages + REGION_PAGES - 1) / REGION_PAGES];
+            for (int r = 0; r < region.length; r++) {
+                int n = Math.min(REGION_PAGES, db.nPages - r * REGION_PAGES);
+                region[r] = ch.map(FileChannel.MapMode.READ_ONLY, db.pageOffset(r * REGION_PAGES),
+                        (long) n * DbFile.PAGE_SIZE);
+            } // for
+        } // constructor
+
+        protected ByteBuffer page(int p) {
+            ByteBuffer b = region[p / REGION_PAGES].duplicate();
+            int off = (p % REGION_PAGES) * DbFile.PAGE_SIZE;
+            b.limit(off + DbFile.PAGE_SIZE).position(off);
+            return b.slice();
+        } // page
+    } // Mapped class
+
+    /************************************************************************************
+     * This class obtains the pages through a buffer pool, so scans and lookups over the
+     * table run within the pool's frame budget.
+     */
+    static class Pooled extends PagedTupleList {
+        /**
+         * The buffer pool caching the file's pages.
+         */
+        private final BufferPool pool;
+
+        /**
+         * The id of the file within the pool.
+         */
+        private final int fileId;
+
+        /************************************************************************************
+         * Construct a tuple list whose pages are read through the given pool.
+         *
+         * @param _db     the description of the file
+         * @param _pool   the buffer pool
+         * @param _fileId the id of the file within the pool
+         */
+        Pooled(DbFile _db, BufferPool _pool, int _fileId) throws IOException {
+            super(_db);
+            pool = _pool;
+            fileId = _fileId;
+        } // constructor
+
+        protected ByteBuffer page(int p) {
+            try {
+                return pool.pin(fileId, db.headerPages + p);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("PagedTupleList: unable to read page " + p, ex);
+            } // try
+        } // page
+
+        protected void release(int p) {
+            pool.unpin(fileId, db.headerPages + p, false);
+        } // release
+
+        public void close() throws IOException {
+            pool.close(fileId);
+        } // close
+    } // Pooled class
+
+} // PagedTupleList class
@@ -0,0 +1,108 @@
+/****************************************************************************************
+ * @file StorageBenchmark.java
+ */
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/****************************************************************************************
+ * This class benchmarks saving and loading tables.  It times Table.save and Table.load
+ * (the binary paged format, see DbFile) against the Java serialization path they
+ * replaced, which wrote the tuples with an ObjectOutputStream and read them back with an
+ * ObjectInputStream.  (The old path serialized the whole Table, but that fails once the
+ * table has a B+Tree index, so the baseline serializes the tuple list alone.)
+ * <p>
+ * #usage java StorageBenchmark [nTuples]
+ */
+public class StorageBenchmark {
+    /**
+     * The number of times each path is run (the best time is reported).
+     */
+    private static final int RUNS = 3;
+
+    /**
+     * The schema of the benchmark table.
+     */
+    private static final String[] ATTRIBUTE = {"id", "name", "address", "gpa", "credits"};
+    private static final Class[] DOMAIN = {Integer.class, String.class, String.class, Double.class, Integer.class};
+    private static final String[] KEY = {"id"};
+
+    /************************************************************************************
+     * Build n tuples with integer, string and real columns.
+     *
+     * @param n    the number of tuples
+     * @param dest the list receiving the tuples
+     * @return dest
+     */
+    static List<Comparable[]> makeTuples(int n, List<Comparable[]> dest) {
+        Random rng = new Random(42);
+        for (int i = 0; i < n; i++) {
+            dest.add(new Comparable[]{i, "name" + rng.nextInt(1000000), "address" + rng.nextInt(1000000),
+                    rng.nextDouble() * 4.0, rng.nextInt(200)});
+        } // for
+        return dest;
+    } // makeTuples
+
+    /************************************************************************************
+     * Time the paged format and Java serialization for saving and loading n tuples.
+     *
+     * @param n        the number of tuples
+     * @param columnar whether the table stores its tuples by column
+     */
+    static void benchSaveLoad(int n, boolean columnar) throws Exception {
+        out.println((columnar ? "column" : "row") + " store: " + n + " tuples");
+        List<Comparable[]> tuples = makeTuples(n, new ArrayList<>(n));
+        Table t = new Table("bench", ATTRIBUTE, DOMAIN, KEY,
+                makeTuples(n, columnar ? new ColumnStore(DOMAIN) : new ArrayList<>(n)));
+        File ser = new File("store" + File.separator + "bench.ser");
+        File dbf = new File("store" + File.separator + "bench.dbf");
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int r = 0; r < RUNS; r++) {
+            long t0 = System.nanoTime();
+            try (ObjectOutputStream oos = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(ser)))) {
+                oos.writeObject(tuples);
+            } // try
+            long t1 = System.nanoTime();
+            List<?> back;
+            try (ObjectInputStream ois = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(ser)))) {
+                back = (List<?>) ois.readObject();
+            } // try
+            long t2 = System.nanoTime();
+            t.save();
+            long t3 = System.nanoTime();
+            Table loaded = Table.load("bench");
+            long t4 = System.nanoTime();
+            if (back.size() != n || loaded.countRange(new KeyType(0), new KeyType(n)) != n) {
+                throw new IllegalStateException("StorageBenchmark: lost tuples");
+            } // if
+            best[0] = Math.min(best[0], t1 - t0);
+            best[1] = Math.min(best[1], t2 - t1);
+            best[2] = Math.min(best[2], t3 - t2);
+            best[3] = Math.min(best[3], t4 - t3);
+        } // for
+        out.printf("%14s %12s %12s %10s%n", "format", "save ms", "load ms", "file MB");
+        out.printf("%14s %12d %12d %10.1f%n", "serialization", best[0] / 1000000, best[1] / 1000000,
+                ser.length() / 1048576.0);
+        out.printf("%14s %12d %12d %10.1f%n", "paged", best[2] / 1000000, best[3] / 1000000,
+                dbf.length() / 1048576.0);
+        out.printf("speedup: save %.1fx, load %.1fx%n", best[0] / (double) best[2], best[1] / (double) best[3]);
+        ser.delete();
+    } // benchSaveLoad
+
+    /************************************************************************************
+     * The main method runs the benchmarks.
+     *
+     * @param args the command-line arguments (args [0] gives the number of tuples,
+     *             1,000,000 by default)
+     */
+    public static void main(String[] args) throws Exception {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        benchSaveLoad(n, false);
+        benchSaveLoad(n, true);
+    } // main
+
+} // StorageBenchmark class
@@ -5,6 +5,10 @@
  */
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.*;
 import java.util.stream.*;
@@ -32,6 +36,11 @@ public class Table
      */
     private static final String EXT = ".dbf";
 
+    /**
+     * Filename extension for disk-resident index files
+     */
+    private static final String IDX = ".idx";
+
     /**
      * Counter for naming temporary tables.
      */
@@ -68,7 +77,12 @@ public class Table
     /**
      * Index into tuples (maps key to tuple number).
      */
-    private final Map<KeyType, Comparable[]> index;
+    private final Map<KeyType, Integer> index;
+
+    /**
+     * Number of tuples entered in the index (tuples with duplicate keys are not).
+     */
+    private int nIndexed = 0;
 
     //----------------------------------------------------------------------------------
     // Constructors
@@ -88,8 +102,7 @@ public class Table
         domain = _domain;
         key = _key;
         tuples = new ArrayList<>();
-        //index = new ExtHashMap(Integer.class, Integer.class, 11);
-        index = new BpTreeMap(KeyType.class, Comparable[].class);
+        index = newIndex();
         //index = new TreeMap<>();       // also try BPTreeMap, LinHashMap or ExtHashMap
     } // constructor
 
@@ -109,11 +122,70 @@ public class Table
         domain = _domain;
         key = _key;
         tuples = _tuples;
-        //index = new ExtHashMap(Integer.class, Integer.class, 11);
-        index = new BpTreeMap(KeyType.class, Comparable[].class);
+        index = newIndex();
         //index = new TreeMap<>();       // also try BPTreeMap, LinHashMap or ExtHashMap
     } // constructor
 
+    /************************************************************************************
+     * Construct a table over stored tuples with an existing index (e.g., a DiskBpTree
+     * saved alongside the table's file).
+     *
+     * @param _name      the name of the relation
+     * @param _attribute the string containing attributes names
+     * @param _domain    the string containing attribute domains (data types)
+     * @param _key       the primary key
+     * @param _tuples    the list of tuples containing the data
+     * @param _index     the index mapping each key to its tuple number
+     */
+    private Table(String _name, String[] _attribute, Class[] _domain, String[] _key,
+                  List<Comparable[]> _tuples, Map<KeyType, Integer> _index) {
+        name = _name;
+        attribute = _attribute;
+        domain = _domain;
+        key = _key;
+        tuples = _tuples;
+        index = _index;
+        nIndexed = index.size();
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty table whose primary-key index is the given map rather than
+     * the default one, e.g., an OffHeapHashMap keeping the index of a very large table
+     * off the heap.
+     * <p>
+     * #usage new Table ("big", attrs, doms, key, false, new OffHeapHashMap (new KeyCodec (keyDoms, 16)))
+     *
+     * @param _name      the name of the relation
+     * @param _attribute the string containing attributes names
+     * @param _domain    the string containing attribute domains (data types)
+     * @param _key       the primary key
+     * @param columnar   whether to store the tuples by column
+     * @param _index     the (empty) index to map each key to its tuple number
+     */
+    public Table(String _name, String[] _attribute, Class[] _domain, String[] _key,
+                 boolean columnar, Map<KeyType, Integer> _index) {
+        this(_name, _attribute, _domain, _key,
+                columnar ? new ColumnStore(_domain) : new ArrayList<>(), _index);
+        if (!_index.isEmpty()) throw new IllegalArgumentException("Table: the index of a new table must be empty");
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty table from the meta-data specifications, choosing the storage
+     * layout.  A columnar table keeps its tuples in a ColumnStore (one primitive array per
+     * numeric column) instead of a list of arrays; every operator works on either.
+     *
+     * @param _name      the name of the relation
+     * @param _attribute the string containing attributes names
+     * @param _domain    the string containing attribute domains (data types)
+     * @param _key       the primary key
+     * @param columnar   whether to store the tuples by column
+     */
+    public Table(String _name, String[] _attribute, Class[] _domain, String[] _key,
+                 boolean columnar) {
+        this(_name, _attribute, _domain, _key,
+                columnar ? new ColumnStore(_domain) : new ArrayList<>());
+    } // constructor
+
     /************************************************************************************
      * Construct an empty table from the raw string specifications.
      *
@@ -127,10 +199,39 @@ public class Table
         out.println("DDL> create table " + name + " (" + attributes + ")");
     } // constructor
 
+    /************************************************************************************
+     * Construct an empty table from the raw string specifications, choosing the storage
+     * layout.
+     *
+     * @param name       the name of the relation
+     * @param attributes the string containing attributes names
+     * @param domains    the string containing attribute domains (data types)
+     * @param columnar   whether to store the tuples by column
+     */
+    public Table(String name, String attributes, String domains, String _key, boolean columnar) {
+        this(name, attributes.split(" "), findClass(domains.split(" ")), _key.split(" "), columnar);
+
+        out.println("DDL> create " + (columnar ? "columnar " : "") + "table " + name
+                + " (" + attributes + ")");
+    } // constructor
+
     //----------------------------------------------------------------------------------
     // Public Methods
     //----------------------------------------------------------------------------------
 
+    /************************************************************************************
+     * Start a pipelined query over this table.  The returned scan operator can be
+     * composed with select, project, union, minus and join operators that pull tuples
+     * one at a time, so no intermediate tables are built until Operator.toTable.
+     * <p>
+     * #usage movie.scan ().project ("title studioName").join ("studioName", "name", studio.scan ())
+     *
+     * @return a scan operator over the tuples of this table
+     */
+    public Operator scan() {
+        return new Operator.Scan(attribute, domain, key, tuples);
+    } // scan
+
     /************************************************************************************
      * Project the tuples onto a lower dimension by keeping only the given attributes.
      * Check whether the original key is included in the projection.
@@ -196,6 +297,104 @@ public class Table
         return new Table(name + count++, attribute, domain, key, rows);
     } // select
 
+    /************************************************************************************
+     * Select the tuples whose value for the given attribute equals value.  On a
+     * dictionary-encoded column, value is translated to its code once and the column's
+     * code array is scanned, so no strings are compared.
+     * <p>
+     * #usage movie.select ("genre", "sciFi")
+     *
+     * @param attr  the attribute to compare
+     * @param value the value to compare with
+     * @return a table with the tuples having that value
+     */
+    public Table select(String attr, Comparable value) {
+        out.println("RA> " + name + ".select (" + attr + " == " + value + ")");
+
+        int c = col(attr);
+        List<Comparable[]> rows = new ArrayList<>();
+
+        if (isEncoded(c)) {
+            ColumnStore store = (ColumnStore) tuples;
+            int code = store.code(c, value);
+            int[] codes = store.codes(c);
+            for (int i = 0; code >= 0 && i < store.size(); i++) {
+                if (codes[i] == code) rows.add(store.get(i));
+            } // for
+        } else {
+            for (Comparable[] tup : tuples) {
+                if (value.equals(tup[c])) rows.add(tup);
+            } // for
+        } // if
+
+        return new Table(name + count++, attribute, domain, key, rows);
+    } // select
+
+    /************************************************************************************
+     * Select the tuples satisfying a conjunction of column filters, processing the
+     * table in batches of ColumnBatch.SIZE rows.  The filtered columns of each batch are
+     * loaded by column and every filter narrows a selection vector in a tight loop.
+     * <p>
+     * #usage movie.selectBatch ("year genre", ColumnBatch.gt (1977), ColumnBatch.eq ("sciFi"))
+     *
+     * @param attributes the attributes to filter (one per filter)
+     * @param filters    the filters to apply to the corresponding attributes
+     * @return a table with tuples satisfying every filter, or null if there are more
+     * filters than attributes
+     */
+    public Table selectBatch(String attributes, ColumnBatch.Filter... filters) {
+        out.println("RA> " + name + ".selectBatch (" + attributes + ")");
+
+        int[] cols = match(attributes.split(" "));
+        if (filters.length > cols.length) {
+            out.println("selectBatch ERROR: " + filters.length + " filters for " + cols.length + " attributes");
+            return null;
+        } // if
+        List<Comparable[]> rows = new ArrayList<>();
+        ColumnBatch batch = new ColumnBatch(extractDom(cols, domain));
+
+        for (int from = 0; from < tuples.size(); from += ColumnBatch.SIZE) {
+            batch.load(tuples, from, cols);
+            for (int j = 0; j < filters.length; j++) batch.filter(j, filters[j]);
+            for (int i = 0; i < batch.nSel; i++) rows.add(tuples.get(from + batch.sel[i]));
+        } // for
+
+        return new Table(name + count++, attribute, domain, key, rows);
+    } // selectBatch
+
+    /************************************************************************************
+     * Project the tuples onto the given attributes, processing the table in batches of
+     * ColumnBatch.SIZE rows.  Each batch is loaded by column and the output tuples are
+     * filled one column at a time.
+     * <p>
+     * #usage movie.projectBatch ("title year studioNo")
+     *
+     * @param attributes the attributes to project onto
+     * @return a table of projected tuples
+     */
+    public Table projectBatch(String attributes) {
+        out.println("RA> " + name + ".projectBatch (" + attributes + ")");
+        String[] attrs = attributes.split(" ");
+        int[] cols = match(attrs);
+        Class[] colDomain = extractDom(cols, domain);
+        String[] newKey = (Arrays.asList(attrs).containsAll(Arrays.asList(key))) ? key : attrs;
+
+        List<Comparable[]> rows = new ArrayList<>(tuples.size());
+        ColumnBatch batch = new ColumnBatch(colDomain);
+        Comparable[][] buf = new Comparable[ColumnBatch.SIZE][];
+
+        for (int from = 0; from < tuples.size(); from += ColumnBatch.SIZE) {
+            batch.load(tuples, from, cols);
+            for (int i = 0; i < batch.nRows; i++) buf[i] = new Comparable[cols.length];
+            for (int j = 0; j < cols.length; j++) {
+                for (int i = 0; i < batch.nRows; i++) buf[i][j] = batch.get(j, i);
+            } // for
+            rows.addAll(Arrays.asList(buf).subList(0, batch.nRows));
+        } // for
+
+        return new Table(name + count++, attrs, colDomain, newKey, rows);
+    } // projectBatch
+
     /************************************************************************************
      * Select the tuples satisfying the given key predicate (key = value).  Use an index
      * (Map) to retrieve the tuple with the given key value.
@@ -206,27 +405,85 @@ public class Table
     public Table select(KeyType keyVal) {
         out.println("RA> " + name + ".select (" + keyVal + ")");
 
-        List<Comparable[]> rows = new ArrayList<>();
-        List<Integer> indexes = new ArrayList<>();
-        //  T O   B E   I M P L E M E N T E D
+        List<Comparable[]> rows = new ArrayList<>(1);
 
-        //store the row index of the table that match the keyVal
-        for (int i = 0; i < tuples.size(); i++) {
-            if (keyVal.equals(new KeyType(tuples.get(i)))) {
-                indexes.add(i);
-            }
-        }
+        if (hasCompleteIndex()) {
+            Integer i = index.get(keyVal);
+            if (i != null) rows.add(tuples.get(i));
+        } else {
+            //no usable index: compare the key columns of each tuple
+            int[] keyCols = match(key);
+            for (Comparable[] tup : tuples) {
+                if (keyVal.equals(new KeyType(extract(tup, keyCols)))) rows.add(tup);
+            } // for
+        } // if
 
+        return new Table(name + count++, attribute, domain, key, rows);
+    } // select
 
-        //add the rows to the new table
-        for (int i = 0; i < indexes.size(); i++) {
-            Comparable[] foo = tuples.get(indexes.get(i));
-            rows.add(foo);
-        }
+    /************************************************************************************
+     * Select the tuples whose key lies in the range [lo, hi).  When the index is a
+     * B+Tree, only the leaves overlapping the range are visited.
+     * <p>
+     * #usage movie.select (new KeyType ("Rambo", 1978), new KeyType ("Star_Wars", 1977))
+     *
+     * @param lo the lower bound on the key (inclusive)
+     * @param hi the upper bound on the key (exclusive)
+     * @return a table with the tuples whose keys are in the range
+     */
+    @SuppressWarnings("unchecked")
+    public Table select(KeyType lo, KeyType hi) {
+        out.println("RA> " + name + ".select (" + lo + ", " + hi + ")");
+
+        List<Comparable[]> rows = new ArrayList<>();
+
+        if (index instanceof BpTreeMap && hasCompleteIndex()) {
+            for (int i : ((BpTreeMap<KeyType, Integer>) index).rangeValues(lo, hi)) {
+                rows.add(tuples.get(i));
+            } // for
+        } else if (index instanceof DiskBpTree && hasCompleteIndex()) {
+            for (int i : ((DiskBpTree) index).rangeValues(lo, hi)) rows.add(tuples.get(i));
+        } else {
+            //no usable index: compare the key columns of each tuple
+            int[] keyCols = match(key);
+            for (Comparable[] tup : tuples) {
+                KeyType k = new KeyType(extract(tup, keyCols));
+                if (k.compareTo(lo) >= 0 && k.compareTo(hi) < 0) rows.add(tup);
+            } // for
+        } // if
 
         return new Table(name + count++, attribute, domain, key, rows);
     } // select
 
+    /************************************************************************************
+     * Count the tuples whose key lies in the range [lo, hi) (COUNT(*) over a key range).
+     * A B+Tree index answers from its subtree counts in O(log n), without visiting the
+     * tuples.
+     * <p>
+     * #usage movie.countRange (new KeyType ("Rambo", 1978), new KeyType ("Star_Wars", 1977))
+     *
+     * @param lo the lower bound on the key (inclusive)
+     * @param hi the upper bound on the key (exclusive)
+     * @return the number of tuples whose keys are in the range
+     */
+    @SuppressWarnings("unchecked")
+    public int countRange(KeyType lo, KeyType hi) {
+        out.println("RA> " + name + ".countRange (" + lo + ", " + hi + ")");
+
+        if (index instanceof BpTreeMap && hasCompleteIndex()) {
+            return ((BpTreeMap<KeyType, Integer>) index).countRange(lo, hi);
+        } // if
+
+        //no usable index: compare the key columns of each tuple
+        int[] keyCols = match(key);
+        int n = 0;
+        for (Comparable[] tup : tuples) {
+            KeyType k = new KeyType(extract(tup, keyCols));
+            if (k.compareTo(lo) >= 0 && k.compareTo(hi) < 0) n++;
+        } // for
+        return n;
+    } // countRange
+
     /************************************************************************************
      * Union this table and table2.  Check that the two tables are compatible.
      * <p>
@@ -240,21 +497,15 @@ public class Table
         if (!compatible(table2)) return null;
 
         List<Comparable[]> rows = new ArrayList<>();
+        Set<KeyType> seen = new HashSet<>(2 * (tuples.size() + table2.tuples.size()) + 1);
 
-        //add everything in table1 to new table
-        for (Comparable[] tup : this.tuples) {
-            rows.add(tup);
-        }
-
-        //if the tuple in table2 does not exists in new table,
-        //add it to new table.
+        //keep the first occurrence of each distinct tuple from either table
+        for (Comparable[] tup : tuples) {
+            if (seen.add(new KeyType(tup))) rows.add(tup);
+        } // for
         for (Comparable[] tup2 : table2.tuples) {
-            if (!rows.contains(tup2)) {
-                rows.add(tup2);
-            }
-        }
-
-        //  T O   B E   I M P L E M E N T E D 
+            if (seen.add(new KeyType(tup2))) rows.add(tup2);
+        } // for
 
         return new Table(name + count++, attribute, domain, key, rows);
     } // union
@@ -273,18 +524,13 @@ public class Table
         if (!compatible(table2)) return null;
 
         List<Comparable[]> rows = new ArrayList<>();
+        Set<KeyType> seen = new HashSet<>(2 * table2.tuples.size() + 1);
 
-        //add everything in table to new table
-        for(Comparable[] tup:tuples) {
-            rows.add(tup);
-        }
-
-        //remove everything from new table that exists in table2.
-        for(Comparable[] tup2:table2.tuples) {
-            if (rows.contains(tup2)) {
-                rows.remove(tup2);
-            }
-        }
+        //mark every tuple of table2, then keep the distinct unmarked tuples of this table
+        for (Comparable[] tup2 : table2.tuples) seen.add(new KeyType(tup2));
+        for (Comparable[] tup : tuples) {
+            if (seen.add(new KeyType(tup))) rows.add(tup);
+        } // for
 
         return new Table(name + count++, attribute, domain, key, rows);
     } // minus
@@ -309,92 +555,218 @@ public class Table
         String[] t_attrs = attributes1.split(" ");
         String[] u_attrs = attributes2.split(" ");
 
-        List<Comparable[]> rows = new ArrayList<>();
-        List<Integer> t_indexes = new ArrayList<>();
-        List<Integer> u_indexes = new ArrayList<>();
-        //  T O   B E   I M P L E M E N T E D
+        int[] t_cols = match(t_attrs);
+        int[] keyCols = table2.keyOrder(u_attrs, t_cols);
 
-        //store the index of the t_attrs
-        for (int i = 0; i < attribute.length; i++) {
-            for (int j = 0; j < t_attrs.length; j++) {
-                if (attribute[i].equals(t_attrs[j])) {
-                    t_indexes.add(i);
-                }
-            }
-        }
-
-        //store the index of the r_attrs
-        for (int i = 0; i < table2.attribute.length; i++) {
-            for (int j = 0; j < u_attrs.length; j++) {
-                if (table2.attribute[i].equals(u_attrs[j])) {
-                    u_indexes.add(i);
-                }
-            }
-        }
-
-        Predicate<Comparable[]> predicate = null;
-
-        for (Comparable[] tup : this.tuples) {
-
-            //generate the predicate for "select" method
-            for (int i = 0; i < t_indexes.size(); i++) {
-
-                String att1 = u_attrs[u_indexes.get(i)];
-                Comparable att2 = tup[t_indexes.get(i)];
-
-                if(predicate != null) {
-                    predicate = predicate.and(t -> t[table2.col(att1)].equals(att2));
-                }else {
-
-                    predicate = t -> t[table2.col(att1)].equals(att2);
-                }
-            }
+        List<Comparable[]> rows = (keyCols != null && table2.hasCompleteIndex())
+                ? indexJoin(keyCols, table2)
+                : hashJoin(t_cols, table2, table2.match(u_attrs));
 
+        return new Table(name + count++, ArrayUtil.concat(attribute, table2.attribute),
+                ArrayUtil.concat(domain, table2.domain), key, rows);
+    } // join
 
-            Table temp = table2.select(predicate);
-            //select the table that meets the condition
+    /************************************************************************************
+     * Join this table and table2 by performing an equijoin using sort-merge.  Both
+     * inputs are sorted on their join attributes, spilling sorted runs to the storage
+     * directory whenever an input exceeds its share of the memory budget, and are then
+     * merged in one pass.  Duplicate join keys on both sides are handled by buffering
+     * the group of table2 tuples sharing the current key; a group larger than table2's
+     * share of the budget is spilled to a run file and reread for each matching tuple
+     * of this table.  The budget counts tuples, not bytes, and applies per structure:
+     * each of the two sorts and the group buffer holds at most tupleBudget / 2 tuples,
+     * so up to 1.5 * tupleBudget tuples may be in memory at once.  A sort that spills
+     * merges at most ExternalSort.FAN_IN runs at a time, so the number of open files
+     * stays bounded even for a small budget.
+     * <p>
+     * #usage student.join ("id", "studId", transcript, 100000)
+     *
+     * @param attributes1 the attributes of this table to be compared (Foreign Key)
+     * @param attributes2 the attributes of table2 to be compared (Primary Key)
+     * @param table2      the rhs table in the join operation
+     * @param tupleBudget twice the number of tuples each sort (and the group) may hold
+     * @return a table with tuples satisfying the equality predicate
+     */
+    public Table join(String attributes1, String attributes2, Table table2, int tupleBudget) {
+        out.println("RA> " + name + ".join (" + attributes1 + ", " + attributes2 + ", "
+                + table2.name + ", " + tupleBudget + ")");
 
+        int[] t_cols = match(attributes1.split(" "));
+        int[] u_cols = table2.match(attributes2.split(" "));
+        File dir = new File(DIR);
 
-            predicate = null;
-            //reset the predicate
+        List<Comparable[]> rows = new ArrayList<>();
+        try (ExternalSort left = new ExternalSort(tuples, t_cols, tupleBudget / 2, dir);
+             ExternalSort right = new ExternalSort(table2.tuples, u_cols, tupleBudget / 2, dir);
+             ExternalSort.Buffer group = new ExternalSort.Buffer(tupleBudget / 2, dir)) {
+            Comparable[] t = left.hasNext() ? left.next() : null;
+            Comparable[] u = right.hasNext() ? right.next() : null;
+
+            while (t != null && u != null) {
+                int cmp = compareKeys(t, t_cols, u, u_cols);
+                if (cmp < 0) {
+                    t = left.hasNext() ? left.next() : null;
+                } else if (cmp > 0) {
+                    u = right.hasNext() ? right.next() : null;
+                } else {
+                    //collect the group of table2 tuples with the current key
+                    Comparable[] first = u;
+                    group.clear();
+                    while (u != null && compareKeys(t, t_cols, u, u_cols) == 0) {
+                        group.add(u);
+                        u = right.hasNext() ? right.next() : null;
+                    } // while
+
+                    //pair every tuple of this table with the same key with the group
+                    while (t != null && compareKeys(t, t_cols, first, u_cols) == 0) {
+                        for (Comparable[] g : group) rows.add(ArrayUtil.concat(t, g));
+                        t = left.hasNext() ? left.next() : null;
+                    } // while
+                } // if
+            } // while
+        } // try
 
-            Comparable[] rw = joinHelper(tup, temp);
+        return new Table(name + count++, ArrayUtil.concat(attribute, table2.attribute),
+                ArrayUtil.concat(domain, table2.domain), key, rows);
+    } // join
 
-            if(rw != null) {
-                rows.add(rw);
-            }
-        }
+    /************************************************************************************
+     * Equijoin this table and table2 on a single dictionary-encoded column of each.
+     * The rows of the smaller input are grouped by code with a counting sort.  Each
+     * code of the other input's dictionary is translated once into the smaller
+     * input's code space.  Rows are then matched by comparing ints only.
+     *
+     * @param tc     the position of the join column in this table
+     * @param table2 the rhs table in the join operation
+     * @param uc     the position of the join column in table2
+     * @return the list of joined tuples
+     */
+    private List<Comparable[]> codeJoin(int tc, Table table2, int uc) {
+        boolean buildThis = tuples.size() <= table2.tuples.size();
+        ColumnStore build = (ColumnStore) (buildThis ? tuples : table2.tuples);
+        ColumnStore probe = (ColumnStore) (buildThis ? table2.tuples : tuples);
+        int bc = buildThis ? tc : uc;
+        int pc = buildThis ? uc : tc;
+
+        //build phase: group the build rows by code (counting sort)
+        int[] bCodes = build.codes(bc);
+        int nCodes = build.dictionary(bc).size();
+        int[] start = new int[nCodes + 1];
+        for (int i = 0; i < build.size(); i++) start[bCodes[i] + 1]++;
+        for (int k = 0; k < nCodes; k++) start[k + 1] += start[k];
+        int[] rowOf = new int[build.size()];
+        int[] fill = Arrays.copyOf(start, nCodes);
+        for (int i = 0; i < build.size(); i++) rowOf[fill[bCodes[i]]++] = i;
+
+        //translate each probe code to the matching build code (-1 if absent)
+        List<String> pDict = probe.dictionary(pc);
+        int[] xlate = new int[pDict.size()];
+        for (int k = 0; k < xlate.length; k++) xlate[k] = build.code(bc, pDict.get(k));
+
+        //probe phase: compare codes only
+        int[] pCodes = probe.codes(pc);
+        //each output tuple is filled straight from both stores, build side first if this
+        int width = attribute.length + table2.attribute.length;
+        int bOff = buildThis ? 0 : attribute.length;
+        int pOff = buildThis ? attribute.length : 0;
+        List<Comparable[]> rows = new ArrayList<>();
+        for (int i = 0; i < probe.size(); i++) {
+            int code = xlate[pCodes[i]];
+            if (code < 0) continue;
+            for (int m = start[code]; m < start[code + 1]; m++) {
+                Comparable[] tup = probe.get(i, new Comparable[width], pOff);
+                rows.add(build.get(rowOf[m], tup, bOff));
+            } // for
+        } // for
 
+        return rows;
+    } // codeJoin
 
+    /************************************************************************************
+     * Compare the join columns of tuple t with the join columns of tuple u.
+     *
+     * @param t      the tuple from this table
+     * @param t_cols the positions of the join columns in t
+     * @param u      the tuple from the other table
+     * @param u_cols the positions of the join columns in u
+     * @return a negative, zero or positive integer as t's key is less, equal or greater
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Comparable[] t, int[] t_cols, Comparable[] u, int[] u_cols) {
+        for (int j = 0; j < t_cols.length; j++) {
+            int cmp = t[t_cols[j]].compareTo(u[u_cols[j]]);
+            if (cmp != 0) return cmp;
+        } // for
+        return 0;
+    } // compareKeys
 
-        return new Table(name + count++, ArrayUtil.concat(attribute, table2.attribute),
-                ArrayUtil.concat(domain, table2.domain), key, rows);
-    } // join
+    /************************************************************************************
+     * Equijoin this table and table2 using an index nested-loop join.  For each tuple
+     * of this table, a key is built from its join columns and looked up in table2's
+     * primary-key index, so no scan of table2 and no temporary tables are needed.
+     *
+     * @param keyCols the positions in this table of the columns matching table2's key
+     * @param table2  the rhs table in the join operation (joined on its primary key)
+     * @return the list of joined tuples
+     */
+    private List<Comparable[]> indexJoin(int[] keyCols, Table table2) {
+        List<Comparable[]> rows = new ArrayList<>();
+        if (table2.index instanceof IntKeyHashMap && IntKeyHashMap.isIntegral(domain[keyCols[0]])) {
+            //probe on the primitive key, without building a KeyType per tuple
+            IntKeyHashMap ih = (IntKeyHashMap) table2.index;
+            for (Comparable[] tup : tuples) {
+                int i = ih.getRow(((Number) tup[keyCols[0]]).longValue());
+                if (i != IntKeyHashMap.NO_ROW) rows.add(ArrayUtil.concat(tup, table2.tuples.get(i)));
+            } // for
+            return rows;
+        } // if
+        for (Comparable[] tup : tuples) {
+            Integer i = table2.index.get(new KeyType(extract(tup, keyCols)));
+            if (i != null) rows.add(ArrayUtil.concat(tup, table2.tuples.get(i)));
+        } // for
+        return rows;
+    } // indexJoin
 
-    /**
-     * A function that combine a single line "table" and a tuple.
-     * @param tup original tuple
-     * @param table1 the table that need to be combined
-     * @return the new tuple consist of the parameter and the firstline of table.
+    /************************************************************************************
+     * Equijoin this table and table2 using a build/probe hash join.  A hash table keyed
+     * on the join columns is built once over the smaller input, then the larger input is
+     * streamed through it.  Every matching pair is emitted, with the columns of this
+     * table always preceding those of table2.
+     *
+     * @param t_cols the positions of the join columns in this table
+     * @param table2 the rhs table in the join operation
+     * @param u_cols the positions of the join columns in table2
+     * @return the list of joined tuples
      */
-    private Comparable[] joinHelper(Comparable[] tup, Table table1) {
-        Comparable[] temp = null;
+    private List<Comparable[]> hashJoin(int[] t_cols, Table table2, int[] u_cols) {
+        if (t_cols.length == 1 && isEncoded(t_cols[0]) && table2.isEncoded(u_cols[0])) {
+            return codeJoin(t_cols[0], table2, u_cols[0]);
+        } // if
 
-        //if the parameter table1 is empty, return null
-        try {
-            temp = table1.tuples.get(0);
-        }catch (Exception e) {
-            return temp;
-        }
+        boolean buildThis = tuples.size() <= table2.tuples.size();
+        List<Comparable[]> build = buildThis ? tuples : table2.tuples;
+        List<Comparable[]> probe = buildThis ? table2.tuples : tuples;
+        int[] b_cols = buildThis ? t_cols : u_cols;
+        int[] p_cols = buildThis ? u_cols : t_cols;
 
+        //build phase: group the tuples of the smaller input by join key
+        Map<KeyType, List<Comparable[]>> hTable = new HashMap<>(2 * build.size() + 1);
+        for (Comparable[] tup : build) {
+            hTable.computeIfAbsent(new KeyType(extract(tup, b_cols)), k -> new ArrayList<>(1)).add(tup);
+        } // for
 
-        Comparable[] res = new Comparable[tup.length+temp.length];
-        System.arraycopy(tup, 0, res, 0, tup.length);
-        System.arraycopy(temp, 0, res, tup.length, temp.length);
-        //copy tup and the first row of the table1 to the new comparable array.
+        //probe phase: stream the larger input and emit all matches
+        List<Comparable[]> rows = new ArrayList<>();
+        for (Comparable[] tup : probe) {
+            List<Comparable[]> matches = hTable.get(new KeyType(extract(tup, p_cols)));
+            if (matches == null) continue;
+            for (Comparable[] m : matches) {
+                rows.add(buildThis ? ArrayUtil.concat(m, tup) : ArrayUtil.concat(tup, m));
+            } // for
+        } // for
 
-        return res;
-    }
+        return rows;
+    } // hashJoin
 
     /************************************************************************************
      * Return the column position for the given attribute name.
@@ -411,7 +783,8 @@ public class Table
     } // col
 
     /************************************************************************************
-     * Insert a tuple to the table.
+     * Insert a tuple to the table.  Tables read from their files (see map and open) are
+     * read-only, so the insert is rejected.
      * <p>
      * #usage movie.insert ("'Star_Wars'", 1977, 124, "T", "Fox", 12345)
      *
@@ -421,18 +794,47 @@ public class Table
     public boolean insert(Comparable[] tup) {
         out.println("DML> insert into " + name + " values ( " + Arrays.toString(tup) + " )");
 
+        if (tuples instanceof PagedTupleList) {
+            out.println("insert: table " + name + " is read-only (stored in its file)");
+            return false;
+        } // if
         if (typeCheck(tup)) {
-            tuples.add(tup);
             Comparable[] keyVal = new Comparable[key.length];
             int[] cols = match(key);
             for (int j = 0; j < keyVal.length; j++) keyVal[j] = tup[cols[j]];
-            index.put(new KeyType(keyVal), tup);
+            tuples.add(tup);
+            if (index.putIfAbsent(new KeyType(keyVal), tuples.size() - 1) == null) nIndexed++;
             return true;
         } else {
             return false;
         } // if
     } // insert
 
+    /************************************************************************************
+     * Dictionary-encode the given String attributes of a columnar table.  Each value is
+     * then stored as an int code into a dictionary shared by the column, and equality
+     * selects and joins on the attribute compare codes.
+     * <p>
+     * #usage movie.encode ("genre studioName")
+     *
+     * @param attributes the attributes to encode
+     * @return whether every attribute was encoded
+     */
+    public boolean encode(String attributes) {
+        if (!(tuples instanceof ColumnStore)) {
+            out.println("encode ERROR: table " + name + " is not columnar");
+            return false;
+        } // if
+        boolean ok = true;
+        for (int c : match(attributes.split(" "))) {
+            if (!((ColumnStore) tuples).encode(c)) {
+                out.println("encode ERROR: " + attribute[c] + " is not a String attribute");
+                ok = false;
+            } // if
+        } // for
+        return ok;
+    } // encode
+
     /************************************************************************************
      * Get the name of the table.
      *
@@ -466,53 +868,161 @@ public class Table
         out.println("-|");
     } // print
 
+    /************************************************************************************
+     * Close a table opened through a buffer pool (see open): its file, and its index
+     * file if one was opened, are closed in the pool, so their channels are released
+     * and their pages evicted.  The table must not be used afterwards.  Other tables
+     * have nothing to release.
+     */
+    public void close() {
+        try {
+            if (tuples instanceof PagedTupleList) ((PagedTupleList) tuples).close();
+            if (index instanceof DiskBpTree) ((DiskBpTree) index).close();
+        } catch (IOException ex) {
+            out.println("close: IO Exception");
+            ex.printStackTrace();
+        } // try
+    } // close
+
     /************************************************************************************
      * Print this table's index (Map).
      */
     public void printIndex() {
         out.println("\n Index for " + name);
         out.println("-------------------");
-        for (Map.Entry<KeyType, Comparable[]> e : index.entrySet()) {
-            out.println(e.getKey() + " -> " + Arrays.toString(e.getValue()));
+        for (Map.Entry<KeyType, Integer> e : index.entrySet()) {
+            out.println(e.getKey() + " -> " + Arrays.toString(tuples.get(e.getValue())));
         } // for
         out.println("-------------------");
     } // printIndex
 
     /************************************************************************************
-     * Load the table with the given name into memory.
+     * Load the table with the given name into memory.  The file is read in large
+     * chunks of pages, each page is decoded directly into tuples, and the primary-key
+     * index is rebuilt from the loaded tuples.
      *
      * @param name the name of the table to load
      */
     public static Table load(String name) {
         Table tab = null;
-        try {
-            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DIR + name + EXT));
-            tab = (Table) ois.readObject();
-            ois.close();
+        try (FileChannel ch = FileChannel.open(Paths.get(DIR + name + EXT), StandardOpenOption.READ)) {
+            DbFile db = DbFile.open(ch);
+            tab = new Table(db.name, db.attribute, db.domain, db.key, db.columnar);
+            for (int j = 0; j < db.encoded.length; j++) {
+                if (db.encoded[j]) ((ColumnStore) tab.tuples).encode(j);
+            } // for
+            db.readAll(ch, tab.tuples);
+            tab.buildIndex();
         } catch (IOException ex) {
             out.println("load: IO Exception");
             ex.printStackTrace();
-        } catch (ClassNotFoundException ex) {
-            out.println("load: Class Not Found Exception");
-            ex.printStackTrace();
         } // try
         return tab;
     } // load
 
     /************************************************************************************
-     * Save this table in a file.
+     * Open the table with the given name without loading it.  The data pages of the
+     * file are memory-mapped and the tuples are decoded from them only as operators
+     * scan them, so opening is cheap and tables larger than the heap can be queried.
+     * The resulting table is read-only and has no index, so key selects and joins fall
+     * back to scans.
+     *
+     * @param name the name of the table to open
+     */
+    public static Table map(String name) {
+        Table tab = null;
+        try (FileChannel ch = FileChannel.open(Paths.get(DIR + name + EXT), StandardOpenOption.READ)) {
+            DbFile db = DbFile.open(ch);
+            tab = new Table(db.name, db.attribute, db.domain, db.key, new PagedTupleList.Mapped(db, ch));
+        } catch (IOException ex) {
+            out.println("map: IO Exception");
+            ex.printStackTrace();
+        } // try
+        return tab;
+    } // map
+
+    /************************************************************************************
+     * Open the table with the given name without loading it, reading its pages through
+     * the given buffer pool.  Scans then run within the pool's frame budget, with the
+     * pool's counters reporting the page traffic.  Like a mapped table, the result is
+     * read-only.  If an index was saved for the table (see saveIndex), it is opened
+     * through the same pool and serves key selects and joins without being rebuilt;
+     * otherwise the table has no index.
+     *
+     * @param name the name of the table to open
+     * @param pool the buffer pool caching the table's pages
+     */
+    public static Table open(String name, BufferPool pool) {
+        Table tab = null;
+        File file = new File(DIR + name + EXT);
+        File idxFile = new File(DIR + name + IDX);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            DbFile db = DbFile.open(ch);
+            List<Comparable[]> rows = new PagedTupleList.Pooled(db, pool, pool.open(file));
+            tab = idxFile.exists()
+                    ? new Table(db.name, db.attribute, db.domain, db.key, rows, DiskBpTree.open(pool, idxFile))
+                    : new Table(db.name, db.attribute, db.domain, db.key, rows);
+        } catch (IOException ex) {
+            out.println("open: IO Exception");
+            ex.printStackTrace();
+        } // try
+        return tab;
+    } // open
+
+    /************************************************************************************
+     * Save this table in a file using the binary paged format (see DbFile).  The index
+     * is not saved; it is rebuilt on load.
      */
     public void save() {
+        if (tuples instanceof PagedTupleList) {
+            out.println("save: table " + name + " is already stored in its file");
+            return;
+        } // if
+        boolean[] encoded = new boolean[attribute.length];
+        for (int j = 0; j < encoded.length; j++) encoded[j] = isEncoded(j);
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DIR + name + EXT));
-            oos.writeObject(this);
-            oos.close();
+            new DbFile(name, attribute, domain, key, tuples instanceof ColumnStore, encoded)
+                    .write(new File(DIR + name + EXT), tuples);
         } catch (IOException ex) {
             out.println("save: IO Exception");
             ex.printStackTrace();
         } // try
     } // save
 
+    /************************************************************************************
+     * Save a disk-resident B+Tree index of this table's primary key (see DiskBpTree)
+     * next to its file, mapping each key to its row in the file.  The table should be
+     * saved first, so that rows in memory and in the file agree.  Tables later opened
+     * through a buffer pool use the saved index instead of scanning.
+     *
+     * @param pool the buffer pool through which to write the index
+     */
+    public void saveIndex(BufferPool pool) {
+        int[] cols = match(key);
+        int strWidth = 1;
+        for (Comparable[] tup : tuples) {
+            for (int c : cols) {
+                if (tup[c] instanceof String) {
+                    strWidth = Math.max(strWidth, ((String) tup[c]).getBytes(StandardCharsets.UTF_8).length);
+                } // if
+            } // for
+        } // for
+        try {
+            DiskBpTree tree = DiskBpTree.create(pool, new File(DIR + name + IDX),
+                    new KeyCodec(extractDom(cols, domain), strWidth));
+            int i = 0;
+            for (Comparable[] tup : tuples) {
+                KeyType k = new KeyType(extract(tup, cols));
+                if (!tree.containsKey(k)) tree.put(k, i);
+                i++;
+            } // for
+            tree.close();
+        } catch (IOException ex) {
+            out.println("saveIndex: IO Exception");
+            ex.printStackTrace();
+        } // try
+    } // saveIndex
+
     //----------------------------------------------------------------------------------
     // Private Methods
     //----------------------------------------------------------------------------------
@@ -538,6 +1048,96 @@ public class Table
         return true;
     } // compatible
 
+    /************************************************************************************
+     * Determine whether the join attributes are exactly this table's primary key and,
+     * if so, reorder the other table's join columns to follow the key order.
+     *
+     * @param attrs  the join attributes of this table
+     * @param others the positions of the corresponding join columns in the other table
+     * @return the other table's column positions in key order, or null if attrs is not
+     * the primary key
+     */
+    private int[] keyOrder(String[] attrs, int[] others) {
+        if (attrs.length != key.length) return null;
+        int[] cols = new int[key.length];
+        for (int j = 0; j < key.length; j++) {
+            int pos = Arrays.asList(attrs).indexOf(key[j]);
+            if (pos < 0) return null;
+            cols[j] = others[pos];
+        } // for
+        return cols;
+    } // keyOrder
+
+    /************************************************************************************
+     * Create the (empty) primary-key index.  A key that is a single integer column is
+     * indexed by an IntKeyHashMap, which holds keys and rows in primitive arrays;
+     * other keys are indexed by a B+Tree, which also serves range selects.  The index
+     * starts small, since most tables (results, mapped and opened tables) are never
+     * indexed; buildIndex sizes it for the tuples it enters.
+     *
+     * @return the new index
+     */
+    private Map<KeyType, Integer> newIndex() {
+        int[] cols = match(key);
+        if (cols.length == 1 && IntKeyHashMap.isIntegral(domain[cols[0]])) {
+            return new IntKeyHashMap(domain[cols[0]]);
+        } // if
+        return new BpTreeMap(KeyType.class, Integer.class);
+    } // newIndex
+
+    /************************************************************************************
+     * Enter every tuple into the (empty) primary-key index.  A B+Tree index is sorted
+     * once and bulk-loaded bottom-up rather than built by one insert per tuple; the
+     * stable sort keeps the first tuple of each key, as putIfAbsent would.
+     */
+    @SuppressWarnings("unchecked")
+    private void buildIndex() {
+        int[] cols = match(key);
+        if (index instanceof BpTreeMap) {
+            List<Map.Entry<KeyType, Integer>> entries = new ArrayList<>(tuples.size());
+            int i = 0;
+            for (Comparable[] tup : tuples) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(new KeyType(extract(tup, cols)), i++));
+            } // for
+            entries.sort(Map.Entry.comparingByKey());
+            ((BpTreeMap<KeyType, Integer>) index).bulkLoad(entries.iterator(), 1.0);
+            nIndexed = index.size();
+            return;
+        } // if
+        if (index instanceof IntKeyHashMap) {
+            IntKeyHashMap ih = (IntKeyHashMap) index;
+            ih.ensureCapacity(tuples.size());
+            for (int i = 0; i < tuples.size(); i++) {
+                if (ih.insert(((Number) tuples.get(i)[cols[0]]).longValue(), i)) nIndexed++;
+            } // for
+            return;
+        } // if
+        for (int i = 0; i < tuples.size(); i++) {
+            if (index.putIfAbsent(new KeyType(extract(tuples.get(i), cols)), i) == null) nIndexed++;
+        } // for
+    } // buildIndex
+
+    /************************************************************************************
+     * Determine whether the primary-key index covers every tuple.  Tables built from a
+     * list of tuples are not indexed, and duplicate keys are kept out of the index, so
+     * only then can a lookup stand in for a scan.
+     *
+     * @return whether the index holds exactly one entry per tuple
+     */
+    private boolean hasCompleteIndex() {
+        return nIndexed == tuples.size();
+    } // hasCompleteIndex
+
+    /************************************************************************************
+     * Determine whether column c of this table is stored dictionary-encoded.
+     *
+     * @param c the column position
+     * @return whether the column holds dictionary codes
+     */
+    private boolean isEncoded(int c) {
+        return tuples instanceof ColumnStore && ((ColumnStore) tuples).isEncoded(c);
+    } // isEncoded
+
     /************************************************************************************
      * Match the column and attribute names to determine the domains.
      *
@@ -577,6 +1177,19 @@ public class Table
         return tup;
     } // extract
 
+    /************************************************************************************
+     * Extract the values at the given column positions from tuple t.
+     *
+     * @param t      the tuple to extract from
+     * @param colPos the array of column positions
+     * @return a smaller tuple extracted from tuple t
+     */
+    private static Comparable[] extract(Comparable[] t, int[] colPos) {
+        Comparable[] tup = new Comparable[colPos.length];
+        for (int j = 0; j < colPos.length; j++) tup[j] = t[colPos[j]];
+        return tup;
+    } // extract
+
     /************************************************************************************
      * Check the size of the tuple (number of elements in list) as well as the type of
      * each value to ensure it is from the right domain.